@@ -5,6 +5,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.touchhome.common.env.etcd.EtcdStat;
 
 import java.util.Collection;
@@ -20,6 +21,9 @@ public class EnvironmentConfigurationController
     @Autowired
     private EnvironmentPropertyHolder env;
 
+    // distinguishes snapshot versions of different application runs
+    private final long startTime = System.currentTimeMillis();
+
     @ApiOperation(value = "Retrieve Status",
             notes = "Returns a status for the id provided.",
             consumes = MediaType.APPLICATION_JSON_VALUE,
@@ -28,9 +32,15 @@ public class EnvironmentConfigurationController
             @ApiResponse(code = 500, message = "Internal server error."),
             @ApiResponse(code = 404, message = "Status not found.") })
     @GetMapping
-    public Collection<EnvironmentPropertyModel> retrieveProcessStatus()
+    public Collection<EnvironmentPropertyModel> retrieveProcessStatus(WebRequest request)
     {
-        return env.getProperties().values();
+        // consistent view of all properties. Version of view is used as ETag, so unchanged view isn't sent again
+        EnvironmentPropertySnapshot snapshot = env.getSnapshot();
+        if( request.checkNotModified("\"" + startTime + "-" + snapshot.getVersion() + "\"") )
+        {
+            return null;
+        }
+        return snapshot.getProperties().values();
     }
 
 
@@ -42,7 +52,10 @@ public class EnvironmentConfigurationController
             @ApiParam(name = "name", value = "property name") @PathVariable String name)
     {
         Map<String, String> response = new HashMap<>();
-        response.put(name, env.getProperty(name));
+        String value = env.getProperty(name);
+        // registered property model keeps already masked value
+        EnvironmentPropertyModel model = env.getSnapshot().getProperties().get(name);
+        response.put(name, model != null ? model.getValue() : SensitiveDataMasker.getInstance().mask(name, value));
         return response;
     }
 
@@ -0,0 +1,65 @@
+package org.touchhome.common.env;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Objects;
+
+/**
+ * Accessor of @WebDocEnvironment(refreshOnUpdate) field. Method handles are created once at scan time, so field
+ * accessibility is never flipped again.
+ * <p>
+ * Setter handle of volatile field writes with volatile semantics, so fields that are read by other threads must be
+ * declared volatile. Non-volatile fields are reported at debug level on scan.
+ */
+@Log4j2
+final class EnvironmentFieldAccessor {
+    private final Field field;
+
+    private final MethodHandle getter;
+
+    private final MethodHandle setter;
+
+    EnvironmentFieldAccessor(Field field) throws IllegalAccessException {
+        this.field = field;
+        if (!Modifier.isVolatile(field.getModifiers())) {
+            log.debug("Updatable field <{}> of class <{}> isn't volatile. Other threads may not see updated value",
+                    field.getName(), field.getDeclaringClass().getName());
+        }
+        field.setAccessible(true);
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        boolean isStatic = Modifier.isStatic(field.getModifiers());
+        // unify signatures to (Object)Object and (Object,Object)void
+        MethodHandle getter = lookup.unreflectGetter(field);
+        MethodHandle setter = lookup.unreflectSetter(field);
+        if (isStatic) {
+            getter = MethodHandles.dropArguments(getter, 0, Object.class);
+            setter = MethodHandles.dropArguments(setter, 0, Object.class);
+        }
+        this.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+        this.setter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+    }
+
+    /**
+     * Write newValue into field of target if it differs from current one
+     *
+     * @return previous field value
+     */
+    Object set(Object target, Object newValue) {
+        try {
+            Object prevValue = getter.invokeExact(target);
+            if (!Objects.equals(prevValue, newValue)) {
+                setter.invokeExact(target, newValue);
+            }
+            return prevValue;
+        } catch (Throwable ex) {
+            log.error("Etcd unable update field <{}> of class <{}> with new property value <{}>", field,
+                    target.getClass().getName(), newValue, ex);
+        }
+        return null;
+    }
+}
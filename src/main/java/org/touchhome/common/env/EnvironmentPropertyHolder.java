@@ -8,14 +8,22 @@ import org.springframework.core.convert.support.DefaultConversionService;
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.PropertyResolver;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
 import org.touchhome.common.env.etcd.EtcdStat;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 import static org.touchhome.common.env.etcd.EtcdEnvironmentPropertyService.ETCD_ENDPOINTS;
 
@@ -25,7 +33,13 @@ public class EnvironmentPropertyHolder implements PropertyResolver
 {
     @Getter private final EnvironmentPropertyService environmentPropertyService;
 
-    @Getter private final Map<String, EnvironmentPropertyModel> properties = new TreeMap<>();
+    // copy-on-write snapshot of properties. Reads are lock free, writes replace snapshot with CAS
+    private final AtomicReference<EnvironmentPropertySnapshot> snapshot =
+            new AtomicReference<>(EnvironmentPropertySnapshot.EMPTY);
+
+    // converted values by key and target type. Entry is bound to property model it was converted from and is
+    // removed when model is replaced. Only immutable types are cached, so callers never share mutable values
+    private final Map<String, TypedValues> typedValues = new ConcurrentHashMap<>();
 
     private final ConversionService conversionService = DefaultConversionService.getSharedInstance();
 
@@ -47,7 +61,79 @@ public class EnvironmentPropertyHolder implements PropertyResolver
             if( envValue != null )
             {
                 // replace uses for hiding credentials from value
-                log.info("Environment <{}> - <{}>", key, hideSensitiveData(envValue));
+                log.info("Environment <{}> - <{}>", key, SensitiveDataMasker.getInstance().mask(key, envValue));
+            }
+        }
+    }
+
+    /**
+     * Return sorted copy of current properties. Changes of returned map aren't applied to holder, use
+     * registerProperty or updatePropertyValue. Use getSnapshot for read-only access without copying
+     */
+    public Map<String, EnvironmentPropertyModel> getProperties()
+    {
+        return new TreeMap<>(snapshot.get().getProperties());
+    }
+
+    /**
+     * Return current consistent view of all properties with version that is incremented by every change
+     */
+    public EnvironmentPropertySnapshot getSnapshot()
+    {
+        return snapshot.get();
+    }
+
+    /**
+     * Add property model or replace existed one
+     */
+    public void registerProperty(EnvironmentPropertyModel model)
+    {
+        computeProperty(model.getId(), prev -> model);
+    }
+
+    /**
+     * Set new value of existed property
+     *
+     * @return false if property not exists or already has the same value
+     */
+    public boolean updatePropertyValue(String key, String value)
+    {
+        boolean[] changed = new boolean[1];
+        computeProperty(key, model -> {
+            changed[0] = model != null && !Objects.equals(model.getRawValue(), value);
+            return changed[0] ? model.withValue(value) : model;
+        });
+        return changed[0];
+    }
+
+    /**
+     * Set error of last value update of existed property
+     */
+    public void setPropertyError(String key, String errorValue)
+    {
+        computeProperty(key, model -> model == null ? null : model.withErrorValue(errorValue));
+    }
+
+    /**
+     * Replace property model with function result and publish new snapshot. Function may be called several times in
+     * case of concurrent updates. Returning the same model skips update
+     */
+    private EnvironmentPropertyModel computeProperty(String key,
+                                                     UnaryOperator<EnvironmentPropertyModel> modelFunction)
+    {
+        while( true )
+        {
+            EnvironmentPropertySnapshot current = snapshot.get();
+            EnvironmentPropertyModel prev = current.get(key);
+            EnvironmentPropertyModel next = modelFunction.apply(prev);
+            if( next == prev )
+            {
+                return next;
+            }
+            if( snapshot.compareAndSet(current, current.with(key, next)) )
+            {
+                typedValues.remove(key);
+                return next;
             }
         }
     }
@@ -55,7 +141,7 @@ public class EnvironmentPropertyHolder implements PropertyResolver
     @Override
     public boolean containsProperty(String key)
     {
-        return env.containsProperty(key) || properties.containsKey(key);
+        return env.containsProperty(key) || snapshot.get().getProperties().containsKey(key);
     }
 
     @Override
@@ -79,10 +165,20 @@ public class EnvironmentPropertyHolder implements PropertyResolver
     @Override
     public <T> T getProperty(String key, Class<T> targetType, T t)
     {
+        TypedValues cached = typedValues.get(key);
+        if( cached != null )
+        {
+            Object cachedValue = cached.values.get(targetType);
+            if( cachedValue != null )
+            {
+                return (T)cachedValue;
+            }
+        }
         T value;
-        if( properties.containsKey(key) )
+        EnvironmentPropertyModel model = snapshot.get().get(key);
+        if( model != null )
         {
-            value = (T)properties.get(key).getValue();
+            value = (T)model.getRawValue();
         }
         else
         {
@@ -92,28 +188,53 @@ public class EnvironmentPropertyHolder implements PropertyResolver
                 putProperty(key, value);
             }
         }
-        return conversionService.convert(value, targetType);
-    }
-
-    private <T> T putProperty(String key, T value)
-    {
-        return putProperty(key, value, value == null ? null : value.getClass(), null);
+        T convertedValue = conversionService.convert(value, targetType);
+        if( model != null )
+        {
+            cacheTypedValue(key, model, targetType, convertedValue);
+        }
+        return convertedValue;
     }
 
-    <T> T putProperty(String key, T value, Class type, String description)
+    /**
+     * Cache value converted from model. Value is cached only if model is still current, otherwise stale value would
+     * be bound to newer model
+     */
+    private void cacheTypedValue(String key, EnvironmentPropertyModel model, Class<?> targetType,
+                                 Object convertedValue)
     {
-        if( value instanceof String )
+        if( convertedValue == null || !isImmutableType(targetType) || snapshot.get().get(key) != model )
         {
-            value = (T)hideSensitiveData((String)value);
+            return;
         }
-        if( properties.containsKey(key) )
+        TypedValues cached = typedValues.computeIfAbsent(key, k -> new TypedValues(model));
+        if( cached.model == model )
         {
-            properties.get(key).setValue(value.toString());
+            cached.values.putIfAbsent(targetType, convertedValue);
         }
-        else
+        // model may be replaced concurrently before entry was added, invalidation of such model could be missed
+        if( snapshot.get().get(key) != model )
         {
-            properties.put(key, new EnvironmentPropertyModel(key, type, description, value.toString()));
+            typedValues.remove(key, cached);
         }
+    }
+
+    private static boolean isImmutableType(Class<?> type)
+    {
+        return ClassUtils.isPrimitiveOrWrapper(type) || type == String.class || type.isEnum()
+                || type == BigDecimal.class || type == BigInteger.class;
+    }
+
+    private <T> T putProperty(String key, T value)
+    {
+        return putProperty(key, value, value == null ? null : value.getClass(), null);
+    }
+
+    <T> T putProperty(String key, T value, Class type, String description)
+    {
+        String strValue = value.toString();
+        computeProperty(key, model -> model == null ? new EnvironmentPropertyModel(key, type, description, strValue) :
+                Objects.equals(model.getRawValue(), strValue) ? model : model.withValue(strValue));
         return value;
     }
 
@@ -126,9 +247,10 @@ public class EnvironmentPropertyHolder implements PropertyResolver
     @Override
     public <T> T getRequiredProperty(String key, Class<T> aClass) throws IllegalStateException
     {
-        if( properties.containsKey(key) )
+        EnvironmentPropertyModel model = snapshot.get().get(key);
+        if( model != null )
         {
-            return (T)properties.get(key).getValue();
+            return (T)model.getRawValue();
         }
         return putProperty(key, env.getRequiredProperty(key, aClass));
     }
@@ -164,6 +286,22 @@ public class EnvironmentPropertyHolder implements PropertyResolver
         environmentPropertyService.updateProperties(keyValue);
     }
 
+    /**
+     * Write properties in batches using EnvironmentPropertyService implementation
+     *
+     * @param keyValue    - properties to write
+     * @param batchSize   - number of properties written by one request
+     * @param maxInFlight - max number of concurrently sent requests
+     * @param atomic      - either all or none of properties are written
+     * @return future with per property results
+     */
+    public CompletableFuture<PropertiesUpdateResult> updatePropertiesAsync(Map<String, String> keyValue,
+                                                                           int batchSize, int maxInFlight,
+                                                                           boolean atomic)
+    {
+        return environmentPropertyService.updatePropertiesAsync(keyValue, batchSize, maxInFlight, atomic);
+    }
+
     /**
      * Add property listener to EnvironmentPropertyService implementation. If no implementation found - just skip
      * handling
@@ -176,7 +314,25 @@ public class EnvironmentPropertyHolder implements PropertyResolver
      */
     public <T> void addPropertyListener(String key, Class<T> type, String description, Consumer<T> consumer)
     {
-        environmentPropertyService.addPropertyListener(key, false, type, description, (s, t) -> consumer.accept(t));
+        addPropertyListener(key, type, description, 0, consumer);
+    }
+
+    /**
+     * Add property listener with coalesce window. Only the latest value of updates received within coalesceWindow
+     * milliseconds is passed to consumer
+     *
+     * @param key            - property key
+     * @param type           - property required type
+     * @param description    - property description
+     * @param coalesceWindow - coalesce window in milliseconds, 0 to handle every update
+     * @param consumer       - property key handler
+     * @param <T>            type of environment property
+     */
+    public <T> void addPropertyListener(String key, Class<T> type, String description, long coalesceWindow,
+                                        Consumer<T> consumer)
+    {
+        environmentPropertyService.addPropertyListener(key, false, type, description, coalesceWindow,
+                (s, t) -> consumer.accept(t));
     }
 
     /**
@@ -192,7 +348,23 @@ public class EnvironmentPropertyHolder implements PropertyResolver
     public <T> void addPrefixPropertyListener(String prefix, Class<T> type, String description,
                                               BiConsumer<String, T> consumer)
     {
-        environmentPropertyService.addPropertyListener(prefix, true, type, description, consumer);
+        addPrefixPropertyListener(prefix, type, description, 0, consumer);
+    }
+
+    /**
+     * Add prefix property listener with coalesce window. Window is applied to every key under prefix separately
+     *
+     * @param prefix         - property prefix
+     * @param type           - property required type
+     * @param description    - property description
+     * @param coalesceWindow - coalesce window in milliseconds, 0 to handle every update
+     * @param consumer       - property key handler
+     * @param <T>            type of environment property
+     */
+    public <T> void addPrefixPropertyListener(String prefix, Class<T> type, String description, long coalesceWindow,
+                                              BiConsumer<String, T> consumer)
+    {
+        environmentPropertyService.addPropertyListener(prefix, true, type, description, coalesceWindow, consumer);
     }
 
     /**
@@ -216,8 +388,24 @@ public class EnvironmentPropertyHolder implements PropertyResolver
         environmentPropertyService.removeProperty(name, prefix);
     }
 
+    /**
+     * Mask credentials in value. Property models keep masked value, so prefer EnvironmentPropertyModel.getValue for
+     * registered properties
+     */
     public static String hideSensitiveData(String value)
     {
-        return value.replaceFirst("://.*@", "//:*****:*****@");
+        return SensitiveDataMasker.getInstance().mask(null, value);
+    }
+
+    private static final class TypedValues
+    {
+        private final EnvironmentPropertyModel model;
+
+        private final Map<Class<?>, Object> values = new ConcurrentHashMap<>();
+
+        private TypedValues(EnvironmentPropertyModel model)
+        {
+            this.model = model;
+        }
     }
 }
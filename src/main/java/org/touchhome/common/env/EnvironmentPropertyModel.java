@@ -3,11 +3,14 @@ package org.touchhome.common.env;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
-import lombok.Setter;
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.Objects;
+
 /**
  * Model represent application environment property state;
+ * Models published by EnvironmentPropertyHolder are treated as immutable, changes are made by withValue and
+ * withErrorValue copies.
  */
 @Getter
 @NoArgsConstructor
@@ -21,11 +24,15 @@ public class EnvironmentPropertyModel {
 
     private String description;
 
+    // value with masked credentials, safe to show and log
     private String value;
 
+    // actual value
+    @JsonIgnore
+    private String rawValue;
+
     private String initValue;
 
-    @Setter
     private String errorValue;
 
     public EnvironmentPropertyModel(String key, Class type, String description, String value) {
@@ -33,17 +40,73 @@ public class EnvironmentPropertyModel {
         this.rawType = type;
         this.type = type.getSimpleName();
         this.description = StringUtils.trimToEmpty(description);
-        setValue(value);
+        assignValue(value);
     }
 
+    private EnvironmentPropertyModel(EnvironmentPropertyModel source) {
+        this.id = source.id;
+        this.type = source.type;
+        this.rawType = source.rawType;
+        this.description = source.description;
+        this.value = source.value;
+        this.rawValue = source.rawValue;
+        this.initValue = source.initValue;
+        this.errorValue = source.errorValue;
+    }
+
+    /**
+     * @deprecated mutates model that may be already published to readers, use EnvironmentPropertyHolder
+     * updatePropertyValue
+     */
+    @Deprecated
     public void setValue(String value) {
+        assignValue(value);
+    }
+
+    /**
+     * @deprecated mutates model that may be already published to readers, use EnvironmentPropertyHolder
+     * setPropertyError
+     */
+    @Deprecated
+    public void setErrorValue(String errorValue) {
+        this.errorValue = errorValue;
+    }
+
+    /**
+     * Return copy of model with new value
+     */
+    public EnvironmentPropertyModel withValue(String value) {
+        EnvironmentPropertyModel model = new EnvironmentPropertyModel(this);
+        model.assignValue(value);
+        return model;
+    }
+
+    private void assignValue(String value) {
+        String maskedValue = SensitiveDataMasker.getInstance().mask(id, value);
         if (this.initValue == null) {
-            this.initValue = value;
+            this.initValue = maskedValue;
         }
-        this.value = value;
+        this.value = maskedValue;
+        this.rawValue = value;
     }
 
+    /**
+     * Return copy of model with error of last value update
+     */
+    public EnvironmentPropertyModel withErrorValue(String errorValue) {
+        EnvironmentPropertyModel model = new EnvironmentPropertyModel(this);
+        model.errorValue = errorValue;
+        return model;
+    }
+
+    /**
+     * Value converted to property type. Null if value is masked: converting masked string would produce masked
+     * elements for collections and maps, and converting raw value would expose credentials in JSON
+     */
     public Object getConvertedValue() {
-        return WebDocEnvironmentBeanFieldScannerBeanPostProcessor.convertValue(id, value);
+        if (!Objects.equals(value, rawValue)) {
+            return null;
+        }
+        return WebDocEnvironmentBeanFieldScannerBeanPostProcessor.convertValue(id, rawValue);
     }
 }
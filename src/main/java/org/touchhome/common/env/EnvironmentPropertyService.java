@@ -6,10 +6,13 @@ import org.touchhome.common.env.etcd.EtcdStat;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static org.touchhome.common.env.WebDocEnvironmentBeanFieldScannerBeanPostProcessor.springConvertValue;
 
@@ -53,7 +56,7 @@ public interface EnvironmentPropertyService
             {
                 throw new IllegalArgumentException(
                         "Unable convert value: " + value + " for property: " + key + ". " + "Required type is: "
-                                + getEnv().getProperties().get(key).getRawType().getName());
+                                + getEnv().getSnapshot().getProperties().get(key).getRawType().getName());
             }
         }
         return updateProperty(key, value, fetchPreviousValue, leaseId);
@@ -74,6 +77,22 @@ public interface EnvironmentPropertyService
         throw new UnsupportedOperationException("Properties update service not available");
     }
 
+    /**
+     * Write properties in batches
+     *
+     * @param keyValue    - properties to write
+     * @param batchSize   - number of properties written by one request
+     * @param maxInFlight - max number of concurrently sent requests
+     * @param atomic      - write all properties in one request, so either all or none of them are written
+     * @return future with per property results
+     */
+    default CompletableFuture<PropertiesUpdateResult> updatePropertiesAsync(Map<String, String> keyValue,
+                                                                            int batchSize, int maxInFlight,
+                                                                            boolean atomic)
+    {
+        throw new UnsupportedOperationException("Properties update service not available");
+    }
+
     /**
      * Get properties by prefix
      *
@@ -95,6 +114,50 @@ public interface EnvironmentPropertyService
         throw new UnsupportedOperationException("Get properties service not available");
     }
 
+    /**
+     * Get properties by prefix
+     *
+     * @param linearizable - skip local cache if implementation has one and read latest values from store
+     */
+    default <T> Map<String, T> getProperties(String prefix, boolean removeKeyPrefix, Function<byte[], T> valueConverter,
+                                             Integer limit, boolean linearizable)
+            throws ExecutionException, InterruptedException
+    {
+        return getProperties(prefix, removeKeyPrefix, valueConverter, limit);
+    }
+
+    /**
+     * Stream properties by prefix without loading all of them into memory
+     *
+     * @param prefix          - property key prefix
+     * @param removeKeyPrefix - remove 'prefix' from returned keys
+     * @param valueConverter  - value converter
+     * @param pageSize        - number of properties fetched by one request. Must be positive
+     * @param <T>             value type
+     * @return lazy stream of key/value
+     */
+    default <T> Stream<Map.Entry<String, T>> streamProperties(String prefix, boolean removeKeyPrefix,
+                                                              Function<byte[], T> valueConverter, int pageSize)
+    {
+        throw new UnsupportedOperationException("Stream properties service not available");
+    }
+
+    /**
+     * Stream property keys by prefix without fetching values
+     */
+    default Stream<String> streamPropertyKeys(String prefix, boolean removeKeyPrefix, int pageSize)
+    {
+        throw new UnsupportedOperationException("Stream properties service not available");
+    }
+
+    /**
+     * Count properties by prefix
+     */
+    default long countProperties(String prefix)
+    {
+        throw new UnsupportedOperationException("Count properties service not available");
+    }
+
     /**
      * Remove property by name.
      *
@@ -128,6 +191,24 @@ public interface EnvironmentPropertyService
     {
     }
 
+    /**
+     * Add property listeners for property with key. Updates of the same key that arrive within coalesceWindow are
+     * coalesced and only the latest value is passed to consumer.
+     *
+     * @param key            property name
+     * @param asPrefix       check if register property name as prefix
+     * @param type           - property java type
+     * @param description    - property description
+     * @param coalesceWindow - coalesce window in milliseconds, 0 to handle every update
+     * @param consumer       handler fires when property value changed
+     * @param <T>            property java type generic
+     */
+    default <T> void addPropertyListener(String key, boolean asPrefix, Class<T> type, String description,
+                                         long coalesceWindow, BiConsumer<String, T> consumer)
+    {
+        addPropertyListener(key, asPrefix, type, description, consumer);
+    }
+
     /**
      * Return all keys that were added via addPropertyListener() method
      *
@@ -149,6 +230,19 @@ public interface EnvironmentPropertyService
         throw new UnsupportedOperationException("Create leaseTTL service not available");
     }
 
+    /**
+     * Write property that lives only while application is alive
+     *
+     * @param key   property name
+     * @param value property value
+     * @throws ExecutionException   if this future completed exceptionally
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    default void updateEphemeralProperty(String key, Object value) throws ExecutionException, InterruptedException
+    {
+        throw new UnsupportedOperationException("Ephemeral property update service not available");
+    }
+
     /**
      * Synchronize multiple instance code with etcd lock.
      * This is blocking method, use own thread implementation for async.
@@ -195,6 +289,21 @@ public interface EnvironmentPropertyService
         return unableToLockHandler.get();
     }
 
+    /**
+     * Non-blocking variant of synchronizeWithLock. See synchronizeWithLock for parameters description
+     *
+     * @param executor - executor that runs handler or unableToLockHandler
+     * @param <T>      - type of return value
+     * @return future completed with value returned by handler or unableToLockHandler
+     */
+    default <T> CompletableFuture<T> synchronizeWithLockAsync(String key, long ttl, long acquireLockTimeout,
+                                                              boolean releaseLockOnFinish, Supplier<T> handler,
+                                                              Supplier<T> unableToLockHandler, Executor executor)
+    {
+        return CompletableFuture.supplyAsync(() -> synchronizeWithLock(key, ttl, acquireLockTimeout,
+                releaseLockOnFinish, handler, unableToLockHandler), executor);
+    }
+
     /**
      * Retrieve all etcd statistic related to this application instance
      */
@@ -208,6 +317,20 @@ public interface EnvironmentPropertyService
         throw new UnsupportedOperationException("Get properties service not available");
     }
 
+    /**
+     * Get property value
+     *
+     * @param key            - property name
+     * @param valueConverter - value converter
+     * @param linearizable   - skip local cache if implementation has one and read latest value from store
+     * @param <T>            value type
+     * @return property value or null
+     */
+    default <T> String getProperty(String key, Function<byte[], T> valueConverter, boolean linearizable)
+    {
+        return getProperty(key, valueConverter);
+    }
+
     default long refreshLeaseTTL(long leaseId)
     {
         throw new UnsupportedOperationException("Refresh LeaseTTL service not available");
@@ -0,0 +1,40 @@
+package org.touchhome.common.env;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable sorted view of environment properties. Every change of EnvironmentPropertyHolder properties publishes new
+ * snapshot with incremented version, so readers never lock and always see consistent set of property models.
+ */
+@Getter
+public final class EnvironmentPropertySnapshot {
+    static final EnvironmentPropertySnapshot EMPTY = new EnvironmentPropertySnapshot(0,
+            Collections.unmodifiableSortedMap(new TreeMap<>()));
+
+    private final long version;
+
+    private final SortedMap<String, EnvironmentPropertyModel> properties;
+
+    private EnvironmentPropertySnapshot(long version, SortedMap<String, EnvironmentPropertyModel> properties) {
+        this.version = version;
+        this.properties = properties;
+    }
+
+    /**
+     * Return next version of snapshot with added or replaced property model
+     */
+    EnvironmentPropertySnapshot with(String key, EnvironmentPropertyModel model) {
+        TreeMap<String, EnvironmentPropertyModel> properties = new TreeMap<>(this.properties);
+        properties.put(key, model);
+        return new EnvironmentPropertySnapshot(version + 1, Collections.unmodifiableSortedMap(properties));
+    }
+
+    EnvironmentPropertyModel get(String key) {
+        return properties.get(key);
+    }
+}
@@ -0,0 +1,155 @@
+package org.touchhome.common.env;
+
+import org.springframework.beans.SimpleTypeConverter;
+import org.springframework.beans.TypeConverter;
+import org.springframework.beans.factory.config.BeanExpressionContext;
+import org.springframework.beans.factory.config.BeanExpressionResolver;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.DependencyDescriptor;
+import org.springframework.context.expression.StandardBeanExpressionResolver;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.NumberUtils;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.function.Function;
+
+/**
+ * Conversion plan of property value into type of @WebDocEnvironment field. Plan is compiled once when field is
+ * registered: primitives, their wrappers and enums are converted directly without spring TypeConverter,
+ * expression resolver and context are shared by all conversions and placeholders/SpEL are evaluated only if value
+ * contains them.
+ * <p>
+ * Direct conversion follows spring default editors: blank value(empty for Character) converts to null for wrappers
+ * and enums and fails for primitives. Custom PropertyEditors registered in bean factory for these types are bypassed,
+ * fields that need them should use other type.
+ */
+final class EnvironmentValueConverter {
+    private final Field field;
+
+    private final Class<?> type;
+
+    private final DependencyDescriptor descriptor;
+
+    // direct conversion of string value. null if conversion requires spring TypeConverter
+    private final Function<String, Object> directConverter;
+
+    private volatile BeanExpressionResolver expressionResolver;
+
+    private volatile BeanExpressionContext expressionContext;
+
+    EnvironmentValueConverter(DependencyDescriptor descriptor) {
+        this.descriptor = descriptor;
+        this.field = descriptor.getField();
+        this.type = field.getType();
+        this.directConverter = createDirectConverter(ClassUtils.resolvePrimitiveIfNecessary(type), type.isPrimitive());
+    }
+
+    Object convert(Object value) {
+        if (value == null || type.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof String) {
+            String strValue = (String) value;
+            if (hasExpression(strValue)) {
+                value = evaluate(strValue);
+            } else if (directConverter != null) {
+                return directConverter.apply(strValue);
+            }
+        }
+        return convertWithTypeConverter(value);
+    }
+
+    private Object convertWithTypeConverter(Object value) {
+        ConfigurableListableBeanFactory beanFactory = WebDocEnvironmentFactoryBeanPostProcessor.beanFactory;
+        // bean factory creates new converter with registered editors on every call, converters aren't thread safe
+        TypeConverter converter = beanFactory.getTypeConverter();
+        try {
+            return converter.convertIfNecessary(value, type, descriptor.getTypeDescriptor());
+        } catch (UnsupportedOperationException ex) {
+            // A custom TypeConverter which does not support TypeDescriptor resolution...
+            converter.convertIfNecessary(value, type, field);
+        }
+        // resolveMultipleBeans
+        String strValue = String.valueOf(value);
+        if (type.isArray()) {
+            String[] arrayValues = strValue.split(",");
+            Object array = type.cast(Array.newInstance(type.getComponentType(), arrayValues.length));
+            for (int i = 0; i < arrayValues.length; i++) {
+                Array.set(array, i, arrayValues[i].trim());
+            }
+            return array;
+        }
+        return new SimpleTypeConverter().convertIfNecessary(value, type);
+    }
+
+    private Object evaluate(String value) {
+        ConfigurableListableBeanFactory beanFactory = WebDocEnvironmentFactoryBeanPostProcessor.beanFactory;
+        if (expressionResolver == null) {
+            // racy initialization is harmless, resolver and context don't keep conversion state
+            expressionContext = new BeanExpressionContext(beanFactory, null);
+            expressionResolver = new StandardBeanExpressionResolver(beanFactory.getBeanClassLoader());
+        }
+        return expressionResolver.evaluate(beanFactory.resolveEmbeddedValue(value), expressionContext);
+    }
+
+    private static boolean hasExpression(String value) {
+        return value.contains("${") || value.contains("#{");
+    }
+
+    /**
+     * @param primitive - field type is primitive, so empty value can't be converted to null
+     */
+    private static Function<String, Object> createDirectConverter(Class<?> type, boolean primitive) {
+        Function<String, Object> converter = createDirectConverter(type);
+        if (converter == null || primitive) {
+            return converter;
+        }
+        if (type == Character.class) {
+            // CharacterEditor treats only empty value as null, single space is valid char
+            return value -> value.isEmpty() ? null : converter.apply(value);
+        }
+        return value -> StringUtils.hasText(value) ? converter.apply(value) : null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Function<String, Object> createDirectConverter(Class<?> type) {
+        if (Number.class.isAssignableFrom(type) && type.getName().startsWith("java.lang.")) {
+            Class<? extends Number> numberType = (Class<? extends Number>) type;
+            return value -> NumberUtils.parseNumber(value.trim(), numberType);
+        }
+        if (type == Boolean.class) {
+            return EnvironmentValueConverter::parseBoolean;
+        }
+        if (type == Character.class) {
+            return value -> {
+                if (value.length() != 1) {
+                    throw new IllegalArgumentException("String [" + value + "] with length " + value.length()
+                            + " cannot be converted to char type");
+                }
+                return value.charAt(0);
+            };
+        }
+        if (type.isEnum()) {
+            return value -> Enum.valueOf((Class<Enum>) type, value.trim());
+        }
+        return null;
+    }
+
+    /**
+     * Same rules as spring CustomBooleanEditor
+     */
+    private static Boolean parseBoolean(String value) {
+        String text = value.trim();
+        if ("true".equalsIgnoreCase(text) || "on".equalsIgnoreCase(text) || "yes".equalsIgnoreCase(text)
+                || "1".equals(text)) {
+            return Boolean.TRUE;
+        }
+        if ("false".equalsIgnoreCase(text) || "off".equalsIgnoreCase(text) || "no".equalsIgnoreCase(text)
+                || "0".equals(text)) {
+            return Boolean.FALSE;
+        }
+        throw new IllegalArgumentException("Invalid boolean value [" + value + "]");
+    }
+}
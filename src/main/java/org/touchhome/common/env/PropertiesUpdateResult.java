@@ -0,0 +1,22 @@
+package org.touchhome.common.env;
+
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Aggregated result of bulk properties update
+ */
+@Getter
+public class PropertiesUpdateResult {
+    // store revision by property key for successfully written properties
+    private final Map<String, Long> revisions = new ConcurrentHashMap<>();
+
+    // error by property key for properties that weren't written
+    private final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+
+    public boolean isSucceeded() {
+        return failures.isEmpty();
+    }
+}
@@ -24,7 +24,8 @@ public @interface WebDocEnvironment
 
     /**
      * Uses in case of Etcd services is working. Check if value is true and add listeners to bean for overriding
-     * values on income data
+     * values on income data. Field is written by etcd listener thread, so it must be volatile to be seen by other
+     * threads
      *
      * @return check if environment should be included into etcd watching
      */
@@ -38,6 +39,14 @@ public @interface WebDocEnvironment
      */
     String description() default "";
 
+    /**
+     * Uses only if refreshOnUpdate is true. Time in milliseconds during which etcd updates of property are coalesced
+     * and only the latest value is injected into field.
+     *
+     * @return coalesce window in milliseconds, 0 to apply every update
+     */
+    long coalesceWindow() default 0;
+
     /**
      * Environment name, if not specified, @Value(...) annotation would be searched and used for fetching property
      * name.
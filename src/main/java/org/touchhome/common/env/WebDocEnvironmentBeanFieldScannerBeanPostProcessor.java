@@ -3,20 +3,20 @@ package org.touchhome.common.env;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
-import org.springframework.beans.SimpleTypeConverter;
-import org.springframework.beans.TypeConverter;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.beans.factory.config.*;
-import org.springframework.context.expression.StandardBeanExpressionResolver;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.DependencyDescriptor;
 import org.springframework.stereotype.Component;
 import org.touchhome.common.util.SpringUtils;
 
-import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.springframework.util.StringUtils.hasLength;
 
@@ -33,8 +33,16 @@ public class WebDocEnvironmentBeanFieldScannerBeanPostProcessor implements BeanP
 
     private final EnvironmentPropertyHolder environmentPropertyHolder;
 
+    // refreshable fields by bean class including superclasses. Empty list for classes without such fields.
+    // Bound to post processor instance, so classes are released together with application context
+    private final Map<Class<?>, List<EnvFieldMetadata>> classMetadata = new ConcurrentHashMap<>();
+
+    private static final WebDocEnvironmentIndex index =
+            new WebDocEnvironmentIndex(WebDocEnvironmentBeanFieldScannerBeanPostProcessor.class.getClassLoader());
+
     /**
-     * Post processor looks through all beans and search fields that annotated with WebDocEnvironment
+     * Post processor looks through all beans and search fields that annotated with WebDocEnvironment.
+     * Class hierarchy is scanned once per bean class
      *
      * @param bean     the new bean instance
      * @param beanName the name of the bean
@@ -42,113 +50,87 @@ public class WebDocEnvironmentBeanFieldScannerBeanPostProcessor implements BeanP
      */
     @Override
     public Object postProcessAfterInitialization(Object bean, String beanName) {
-        Class clazz = bean.getClass();
-        do {
-            searchFieldsWebDocEnvironments(bean, clazz);
-            clazz = clazz.getSuperclass();
+        for (EnvFieldMetadata metadata : classMetadata.computeIfAbsent(bean.getClass(),
+                WebDocEnvironmentBeanFieldScannerBeanPostProcessor::scanClass)) {
+            registerField(bean, metadata);
         }
-        while (clazz != null);
         return bean;
     }
 
     /**
-     * Goes through all fields of bean annotated by @WebDocEnvironment and register listeners for them
+     * Register listener that refreshes bean field
      */
-    private void searchFieldsWebDocEnvironments(Object bean, Class clazz) {
-        for (Field field : clazz.getDeclaredFields()) {
-            WebDocEnvironment annotation = field.getAnnotation(WebDocEnvironment.class);
-            Value valueAnnotation = field.getAnnotation(Value.class);
-
-            if (annotation != null && (valueAnnotation != null || hasLength(annotation.propertyName()))) {
-                // Search of property name by @WebDocEnvironment.propertyName first or @Value.name otherwise
-                String propName = hasLength(annotation.propertyName()) ?
-                        annotation.propertyName() :
-                        SpringUtils.getSpringValuesPattern(SpringUtils.fixValue(valueAnnotation.value()))[0];
-
-                if (annotation.refreshOnUpdate()) {
-                    refreshOnUpdateFieldsToTarget
-                            .put(propName, new EnvFieldContext(new DependencyDescriptor(field, false), bean));
-
-                    EnvironmentPropertyModel epm = environmentPropertyHolder.getProperties().get(propName);
-                    environmentPropertyHolder.addPropertyListener(propName, epm.getRawType(), epm.getDescription(),
-                            value -> processFieldValue(field, bean, value));
+    private void registerField(Object bean, EnvFieldMetadata metadata) {
+        refreshOnUpdateFieldsToTarget.put(metadata.propName,
+                new EnvFieldContext(metadata.descriptor, bean, metadata.converter));
+
+        EnvironmentPropertyModel epm = environmentPropertyHolder.getSnapshot().getProperties().get(metadata.propName);
+        environmentPropertyHolder.addPropertyListener(metadata.propName, epm.getRawType(), epm.getDescription(),
+                metadata.coalesceWindow, value -> metadata.accessor.set(bean, value));
+    }
+
+    /**
+     * Goes through class hierarchy and collect fields annotated by @WebDocEnvironment(refreshOnUpdate).
+     * Jdk and spring classes and classes that are excluded by build time index are skipped
+     */
+    private static List<EnvFieldMetadata> scanClass(Class<?> beanClass) {
+        List<EnvFieldMetadata> result = null;
+        for (Class<?> clazz = beanClass; clazz != null; clazz = clazz.getSuperclass()) {
+            String className = clazz.getName();
+            if (className.startsWith("java.") || className.startsWith("org.springframework.")
+                    || !index.mayHaveFields(clazz)) {
+                continue;
+            }
+            for (Field field : clazz.getDeclaredFields()) {
+                EnvFieldMetadata metadata = createFieldMetadata(field);
+                if (metadata != null) {
+                    if (result == null) {
+                        result = new ArrayList<>();
+                    }
+                    result.add(metadata);
                 }
             }
         }
+        return result == null ? Collections.emptyList() : result;
     }
 
-    public static Object springConvertValue(Object value, String fieldKey) {
-        ConfigurableListableBeanFactory beanFactory = WebDocEnvironmentFactoryBeanPostProcessor.beanFactory;
-        if (value == null) {
+    private static EnvFieldMetadata createFieldMetadata(Field field) {
+        WebDocEnvironment annotation = field.getAnnotation(WebDocEnvironment.class);
+        if (annotation == null || !annotation.refreshOnUpdate()) {
             return null;
         }
-        EnvFieldContext fieldContext = getRefreshOnUpdateFieldsToTarget().get(fieldKey);
-        // in case if listen not @WebDocEnvironment value
-        if (fieldContext == null) {
-            return value;
-        }
-        Field field = fieldContext.getDependencyDescriptor().getField();
-        Class<?> type = field.getType();
-
-        if (type.isAssignableFrom(value.getClass())) {
-            return value;
-        }
-
-        BeanExpressionResolver beanExpressionResolver = new StandardBeanExpressionResolver(
-                beanFactory.getBeanClassLoader());
-        DependencyDescriptor descriptor = fieldContext.getDependencyDescriptor();
-
-        if (value instanceof String) {
-            String strVal = beanFactory.resolveEmbeddedValue((String) value);
-            value = beanExpressionResolver.evaluate(strVal, new BeanExpressionContext(beanFactory, null));
+        Value valueAnnotation = field.getAnnotation(Value.class);
+        if (valueAnnotation == null && !hasLength(annotation.propertyName())) {
+            return null;
         }
-        TypeConverter converter = beanFactory.getTypeConverter();
+        // Search of property name by @WebDocEnvironment.propertyName first or @Value.name otherwise
+        String propName = hasLength(annotation.propertyName()) ?
+                annotation.propertyName() :
+                SpringUtils.getSpringValuesPattern(SpringUtils.fixValue(valueAnnotation.value()))[0];
         try {
-            return converter.convertIfNecessary(value, type, descriptor.getTypeDescriptor());
-        } catch (UnsupportedOperationException ex) {   // A custom TypeConverter which does not support TypeDescriptor resolution...
-            converter.convertIfNecessary(value, type, field);
-        }
-        // resolveMultipleBeans
-        String strValue = String.valueOf(value);
-        if (type.isArray()) {
-            String[] arrayValues = strValue.split(",");
-            Object array = type.cast(Array.newInstance(type.getComponentType(), arrayValues.length));
-            for (int i = 0; i < arrayValues.length; i++) {
-                Array.set(array, i, arrayValues[i].trim());
-            }
-            return array;
+            DependencyDescriptor descriptor = new DependencyDescriptor(field, false);
+            return new EnvFieldMetadata(propName, annotation.coalesceWindow(), descriptor,
+                    new EnvironmentValueConverter(descriptor), new EnvironmentFieldAccessor(field));
+        } catch (IllegalAccessException | RuntimeException ex) {
+            log.error("Unable refresh field <{}> on property update", field, ex);
+            return null;
         }
-        return new SimpleTypeConverter().convertIfNecessary(value, type);
     }
 
     /**
-     * Listener handler for field annotated with @WebDocEnvironment.
-     * Updates field value via reflection with new value
-     *
-     * @param field    - beans field that would be changed
-     * @param target   - field owner(bean)
-     * @param newValue - new value to be injected into field
+     * Convert value into type of @WebDocEnvironment field registered for property fieldKey with conversion plan
+     * compiled at registration
      */
-    private Object processFieldValue(Field field, Object target, Object newValue) {
-        boolean accessible = field.isAccessible();
-        if (!accessible) {
-            field.setAccessible(true);
+    public static Object springConvertValue(Object value, String fieldKey) {
+        if (value == null) {
+            return null;
         }
-        try {
-            Object prevValue = field.get(target);
-            if (!Objects.equals(prevValue, newValue)) {
-                field.set(target, newValue);
-            }
-            return prevValue;
-        } catch (IllegalAccessException e) {
-            log.error("Etcd unable update field <{}> of class <{}> with new property value <{}>", field,
-                    target.getClass().getName(), newValue, e);
-        } finally {
-            if (!accessible) {
-                field.setAccessible(false);
-            }
+        EnvFieldContext fieldContext = getRefreshOnUpdateFieldsToTarget().get(fieldKey);
+        // in case if listen not @WebDocEnvironment value
+        if (fieldContext == null) {
+            return value;
         }
-        return null;
+        return fieldContext.getConverter().convert(value);
     }
 
     static Object convertValue(String id, String value) {
@@ -163,11 +145,26 @@ public class WebDocEnvironmentBeanFieldScannerBeanPostProcessor implements BeanP
         return null;
     }
 
+    @AllArgsConstructor
+    private static class EnvFieldMetadata {
+        private final String propName;
+
+        private final long coalesceWindow;
+
+        private final DependencyDescriptor descriptor;
+
+        private final EnvironmentValueConverter converter;
+
+        private final EnvironmentFieldAccessor accessor;
+    }
+
     @Getter
     @AllArgsConstructor
     private static class EnvFieldContext {
         private DependencyDescriptor dependencyDescriptor;
 
         private Object target;
+
+        private EnvironmentValueConverter converter;
     }
 }
@@ -72,9 +72,9 @@ public class WebDocEnvironmentFactoryBeanPostProcessor implements BeanFactoryPos
                 String propName = SpringUtils.getSpringValuesPattern(strValue)[0];
                 getEnvironmentPropertyHolder().putProperty(propName, propertyValue, descriptor.getDependencyType(),
                         attr.getString("description"));
-                // logs all property with annotation @WebDocEnvironment
+                // logs all property with annotation @WebDocEnvironment. Model keeps masked value
                 log.info("Environment {} <{}> - <{}>", descriptor.getDependencyType().getSimpleName(), propName,
-                        propertyValue);
+                        getEnvironmentPropertyHolder().getSnapshot().getProperties().get(propName).getValue());
             }
 
             return value;
@@ -0,0 +1,91 @@
+package org.touchhome.common.env;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Build time index of classes that declare @WebDocEnvironment fields. Index is generated by
+ * WebDocEnvironmentIndexProcessor into every jar(or classes directory) compiled with this processor enabled.
+ * Class is skipped by field scanner only if its own code source has index and class isn't listed there, so classes
+ * from jars without index are always scanned.
+ */
+@Log4j2
+final class WebDocEnvironmentIndex {
+    static final String INDEX_LOCATION = "META-INF/touchhome/webdoc-environment.index";
+
+    // indexed class names by code source location
+    private final Map<String, Set<String>> indexes = new HashMap<>();
+
+    WebDocEnvironmentIndex(ClassLoader classLoader) {
+        try {
+            Enumeration<URL> resources = classLoader.getResources(INDEX_LOCATION);
+            while (resources.hasMoreElements()) {
+                URL url = resources.nextElement();
+                String location = url.toString();
+                indexes.put(normalize(location.substring(0, location.length() - INDEX_LOCATION.length())),
+                        readIndex(url));
+            }
+        } catch (IOException ex) {
+            log.warn("Unable read @WebDocEnvironment index. All classes are scanned", ex);
+            indexes.clear();
+        }
+        log.debug("Found <{}> @WebDocEnvironment indexes", indexes.size());
+    }
+
+    /**
+     * @return false if class is known to have no @WebDocEnvironment fields
+     */
+    boolean mayHaveFields(Class<?> clazz) {
+        if (indexes.isEmpty()) {
+            return true;
+        }
+        CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) {
+            return true;
+        }
+        Set<String> classes = indexes.get(normalize(codeSource.getLocation().toString()));
+        return classes == null || classes.contains(clazz.getName());
+    }
+
+    private static Set<String> readIndex(URL url) throws IOException {
+        Set<String> classes = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    classes.add(line);
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Index resource url and code source location of the same jar differ by 'jar:' scheme and '!/' suffix
+     */
+    private static String normalize(String location) {
+        if (location.startsWith("jar:")) {
+            location = location.substring("jar:".length());
+        }
+        if (location.endsWith("!/")) {
+            location = location.substring(0, location.length() - 2);
+        }
+        if (location.endsWith("/")) {
+            location = location.substring(0, location.length() - 1);
+        }
+        return location;
+    }
+}
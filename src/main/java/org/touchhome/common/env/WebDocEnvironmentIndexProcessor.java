@@ -0,0 +1,86 @@
+package org.touchhome.common.env;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Annotation processor that writes WebDocEnvironmentIndex of classes which declare @WebDocEnvironment fields.
+ * Processor runs for every compilation(supports all annotations but never claims them), so index of module without
+ * such fields is empty and all it's classes are skipped by field scanner.
+ * Index is written from classes of single compilation, so it may be stale after incremental build. That's why
+ * processor is disabled by default and is enabled by compiler option -Atouchhome.webdoc.index=true for full builds.
+ * <p>
+ * Processor isn't registered in META-INF/services, so it never runs in compilation of this module or of modules that
+ * only depend on it. Module that wants index declares it explicitly, i.e. for maven-compiler-plugin:
+ * annotationProcessors: org.touchhome.common.env.WebDocEnvironmentIndexProcessor (together with
+ * lombok.launch.AnnotationProcessorHider$AnnotationProcessor if lombok is used, as explicit processors disable
+ * discovery) and compilerArgs: -Atouchhome.webdoc.index=true
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(WebDocEnvironmentIndexProcessor.ENABLE_OPTION)
+public class WebDocEnvironmentIndexProcessor extends AbstractProcessor {
+    static final String ENABLE_OPTION = "touchhome.webdoc.index";
+
+    private final Set<String> classes = new TreeSet<>();
+
+    private final List<Element> originatingElements = new ArrayList<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (!Boolean.parseBoolean(processingEnv.getOptions().get(ENABLE_OPTION))) {
+            return false;
+        }
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+        TypeElement annotation = processingEnv.getElementUtils()
+                .getTypeElement(WebDocEnvironment.class.getCanonicalName());
+        if (annotation != null) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.FIELD) {
+                    TypeElement type = (TypeElement) element.getEnclosingElement();
+                    classes.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+                    originatingElements.add(type);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void writeIndex() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    WebDocEnvironmentIndex.INDEX_LOCATION, originatingElements.toArray(new Element[0]));
+            try (Writer writer = file.openWriter()) {
+                for (String className : classes) {
+                    writer.write(className);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Unable write @WebDocEnvironment index: " + ex.getMessage());
+        }
+    }
+}
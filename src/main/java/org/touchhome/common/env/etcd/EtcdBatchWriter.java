@@ -0,0 +1,136 @@
+package org.touchhome.common.env.etcd;
+
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.kv.TxnResponse;
+import io.etcd.jetcd.op.Op;
+import io.etcd.jetcd.options.PutOption;
+import org.touchhome.common.env.PropertiesUpdateResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.touchhome.common.env.etcd.EtcdEnvironmentPropertyService.bytesOf;
+
+/**
+ * Writes many properties with few etcd Txn requests. Keys are grouped into batches of batchSize puts, each batch is
+ * committed as single transaction and at most maxInFlight batches are sent concurrently.
+ * Note that etcd rejects transactions with more operations than server's --max-txn-ops(128 by default)
+ */
+final class EtcdBatchWriter {
+    private final KV kvClient;
+
+    private final String storePath;
+
+    private final EtcdMetrics metrics;
+
+    EtcdBatchWriter(KV kvClient, String storePath, EtcdMetrics metrics) {
+        this.kvClient = kvClient;
+        this.storePath = storePath;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returned future is completed exceptionally with IllegalArgumentException if batchSize or maxInFlight isn't
+     * positive. Failures of single transactions are reported per key in result. Any other failure completes future
+     * exceptionally, so it's never left incomplete
+     *
+     * @param atomic - write all keys in single transaction, so either all or none of them are written.
+     *               batchSize and maxInFlight are ignored in this case
+     */
+    CompletableFuture<PropertiesUpdateResult> write(Map<String, String> keyValue, int batchSize, int maxInFlight,
+                                                    boolean atomic) {
+        CompletableFuture<PropertiesUpdateResult> future = new CompletableFuture<>();
+        if (!atomic && batchSize <= 0) {
+            future.completeExceptionally(new IllegalArgumentException(
+                    "Batch size must be positive but got: " + batchSize));
+            return future;
+        }
+        if (!atomic && maxInFlight <= 0) {
+            future.completeExceptionally(new IllegalArgumentException(
+                    "Max in flight transactions must be positive but got: " + maxInFlight));
+            return future;
+        }
+        PropertiesUpdateResult result = new PropertiesUpdateResult();
+        List<List<Map.Entry<String, String>>> batches = split(keyValue, atomic ? Math.max(1, keyValue.size()) :
+                batchSize);
+        if (batches.isEmpty()) {
+            future.complete(result);
+            return future;
+        }
+
+        AtomicInteger nextBatch = new AtomicInteger();
+        AtomicInteger completedBatches = new AtomicInteger();
+        Runnable[] sendNext = new Runnable[1];
+        sendNext[0] = () -> {
+            int index = nextBatch.getAndIncrement();
+            if (index < batches.size()) {
+                List<Map.Entry<String, String>> batch = batches.get(index);
+                commitSafely(batch).whenComplete((txnResponse, ex) -> {
+                    try {
+                        for (Map.Entry<String, String> entry : batch) {
+                            if (ex == null) {
+                                result.getRevisions().put(entry.getKey(), txnResponse.getHeader().getRevision());
+                            } else {
+                                result.getFailures().put(entry.getKey(), ex);
+                            }
+                        }
+                        if (completedBatches.incrementAndGet() == batches.size()) {
+                            future.complete(result);
+                        } else {
+                            sendNext[0].run();
+                        }
+                    } catch (Throwable failure) {
+                        future.completeExceptionally(failure);
+                    }
+                });
+            }
+        };
+        try {
+            for (int i = 0; i < Math.min(atomic ? 1 : maxInFlight, batches.size()); i++) {
+                sendNext[0].run();
+            }
+        } catch (Throwable failure) {
+            future.completeExceptionally(failure);
+        }
+        return future;
+    }
+
+    /**
+     * Commit batch. Synchronous failure of request creation is returned as failed future, so it's reported as
+     * failure of batch keys
+     */
+    private CompletableFuture<TxnResponse> commitSafely(List<Map.Entry<String, String>> batch) {
+        try {
+            return commit(batch);
+        } catch (RuntimeException ex) {
+            CompletableFuture<TxnResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+    }
+
+    private CompletableFuture<TxnResponse> commit(List<Map.Entry<String, String>> batch) {
+        Op[] puts = new Op[batch.size()];
+        for (int i = 0; i < puts.length; i++) {
+            Map.Entry<String, String> entry = batch.get(i);
+            puts[i] = Op.put(bytesOf(storePath + entry.getKey()), bytesOf(entry.getValue()), PutOption.DEFAULT);
+        }
+        return metrics.timeRpc("txn", kvClient.txn().Then(puts).commit());
+    }
+
+    private static List<List<Map.Entry<String, String>>> split(Map<String, String> keyValue, int batchSize) {
+        List<List<Map.Entry<String, String>>> batches = new ArrayList<>();
+        List<Map.Entry<String, String>> batch = null;
+        for (Map.Entry<String, String> entry : keyValue.entrySet()) {
+            if (batch == null || batch.size() == batchSize) {
+                batch = new ArrayList<>(batchSize);
+                batches.add(batch);
+            }
+            batch.add(entry);
+        }
+        return batches;
+    }
+}
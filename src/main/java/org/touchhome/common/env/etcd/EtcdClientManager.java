@@ -0,0 +1,307 @@
+package org.touchhome.common.env.etcd;
+
+import io.etcd.jetcd.Client;
+import io.etcd.jetcd.ClientBuilder;
+import io.etcd.jetcd.options.GetOption;
+import io.grpc.netty.GrpcSslContexts;
+import io.netty.handler.ssl.SslContextBuilder;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.PropertyResolver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.touchhome.common.env.etcd.EtcdEnvironmentPropertyService.*;
+
+/**
+ * Lifecycle of etcd clients. Main client is created once and is thread safe to obtain.
+ * If health check is enabled, every endpoint is probed periodically by own single-endpoint client with serializable
+ * read, so serializable reads may be routed to the lowest latency healthy member. On every probe round security
+ * configuration(auth, tls certificates and their files) is compared with one used to build clients and clients are
+ * rebuilt if it was changed.
+ */
+@Log4j2
+final class EtcdClientManager {
+    // weight of the last probe latency in moving average
+    private static final double LATENCY_ALPHA = 0.3;
+
+    private final PropertyResolver env;
+
+    // time in milliseconds between health probes, 0 - disabled
+    private final long healthCheckInterval;
+
+    // called after clients were rebuilt because of configuration change
+    private final Runnable rebuildListener;
+
+    private volatile Client client;
+
+    private volatile String fingerprint;
+
+    // probe clients by endpoint. Replaced on rebuild
+    private volatile Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    EtcdClientManager(PropertyResolver env, long healthCheckInterval, Runnable rebuildListener) {
+        this.env = env;
+        this.healthCheckInterval = healthCheckInterval;
+        this.rebuildListener = rebuildListener;
+    }
+
+    Client getClient() {
+        Client client = this.client;
+        if (client == null) {
+            synchronized (this) {
+                if (this.client == null) {
+                    build();
+                }
+                client = this.client;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Client for serializable reads. Lowest latency healthy endpoint or main client if health check is disabled or
+     * no endpoint is healthy
+     */
+    Client getReadClient() {
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints.values()) {
+            if (endpoint.healthy && (best == null || endpoint.latency < best.latency)) {
+                best = endpoint;
+            }
+        }
+        return best == null ? getClient() : best.client;
+    }
+
+    List<EtcdStat.EtcdEndpointStat> getStat() {
+        List<EtcdStat.EtcdEndpointStat> stat = new ArrayList<>();
+        for (Endpoint endpoint : endpoints.values()) {
+            stat.add(new EtcdStat.EtcdEndpointStat(endpoint.url, endpoint.healthy, endpoint.latency,
+                    endpoint.failures, endpoint.lastCheckTime));
+        }
+        return stat;
+    }
+
+    private void build() {
+        String[] urls = env.getRequiredProperty(ETCD_ENDPOINTS).split(",");
+        fingerprint = buildFingerprint();
+        client = buildClient(env, urls);
+        if (healthCheckInterval > 0) {
+            Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+            for (String url : urls) {
+                endpoints.put(url, new Endpoint(url, urls.length == 1 ? client : buildClient(env, url)));
+            }
+            this.endpoints = endpoints;
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "etcd-health-check");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                scheduler.scheduleWithFixedDelay(this::check, healthCheckInterval, healthCheckInterval,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+        log.info("Etcd client created. Endpoints: <{}>, health check: <{}> ms", Arrays.toString(urls),
+                healthCheckInterval);
+    }
+
+    /**
+     * Stop health probes and close main and probe clients
+     */
+    synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (Endpoint endpoint : endpoints.values()) {
+            if (endpoint.client != client) {
+                endpoint.client.close();
+            }
+        }
+        endpoints = new LinkedHashMap<>();
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    private void check() {
+        try {
+            if (!Objects.equals(fingerprint, buildFingerprint())) {
+                rebuild();
+            }
+        } catch (Exception ex) {
+            log.error("Etcd unable rebuild client", ex);
+        }
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.probe();
+        }
+    }
+
+    private void rebuild() {
+        log.warn("Etcd security configuration changed. Rebuild clients");
+        Client oldClient;
+        Map<String, Endpoint> oldEndpoints;
+        synchronized (this) {
+            oldClient = client;
+            oldEndpoints = endpoints;
+            build();
+        }
+        rebuildListener.run();
+        for (Endpoint endpoint : oldEndpoints.values()) {
+            if (endpoint.client != oldClient) {
+                endpoint.client.close();
+            }
+        }
+        if (oldClient != null) {
+            oldClient.close();
+        }
+    }
+
+    /**
+     * Values that affect client creation. Certificate files are included with modification time, so rotated
+     * certificates trigger rebuild
+     */
+    private String buildFingerprint() {
+        StringBuilder builder = new StringBuilder();
+        for (String key : new String[]{ETCD_ENDPOINTS, ETCD_AUTH_USER, ETCD_AUTH_PASSWORD, ETCD_SSL_CERT_AUTHORITY,
+                ETCD_MAX_INBOUND_MESSAGE_SIZE}) {
+            builder.append(Objects.hashCode(env.getProperty(key))).append(';');
+        }
+        for (String key : new String[]{ETCD_SSL_CA_CERTIFICATE, ETCD_SSL_CLIENT_PUBLIC_CERTIFICATE,
+                ETCD_SSL_CLIENT__PRIVATE_CERTIFICATE}) {
+            String path = env.getProperty(key);
+            builder.append(path).append(':').append(path == null ? 0 : new File(path).lastModified()).append(';');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Creates etcd client.
+     * Methods supports few Etcd Security model. https://coreos.com/etcd/docs/latest/op-guide/security.html
+     * <p>
+     * 1. Basic Authentication
+     * requires env properties:
+     * ETCD_AUTH_USER     - user name,
+     * ETCD_AUTH_PASSWORD - user password
+     * <p>
+     * 2. Client-to-server transport security with HTTPS
+     * requires env properties:
+     * ETCD_SSL_CERT_CA_CERT   - verify certificates of TLS-enabled secure servers using this CA bundle
+     * ETCD_SSL_CERT_AUTHORITY - certificates CN name
+     * <p>
+     * 3. Client-to-server authentication with HTTPS client certificates
+     * requires env properties:
+     * ETCD_SSL_CERT_CA_CERT, ETCD_SSL_CERT_AUTHORITY as described in sec.2
+     * ETCD_SSL_CERT_CLIENT_PUB_CERT - identify secure client using this TLS certificate file
+     * ETCD_SSL_CERT_CLIENT_PRV_CERT - identify secure client using this TLS key file
+     */
+    @SneakyThrows
+    static Client buildClient(PropertyResolver env, String... endpoints) {
+        ClientBuilder clientBuilder = Client.builder().endpoints(endpoints);
+
+        if (env.containsProperty(ETCD_MAX_INBOUND_MESSAGE_SIZE)) {
+            clientBuilder.maxInboundMessageSize(env.getProperty(ETCD_MAX_INBOUND_MESSAGE_SIZE, Integer.class));
+        }
+
+        // check user/password security model
+        if (env.containsProperty(ETCD_AUTH_USER) && env.containsProperty(ETCD_AUTH_PASSWORD)) {
+            clientBuilder.user(bytesOf(env.getRequiredProperty(ETCD_AUTH_USER)))
+                    .password(bytesOf(env.getRequiredProperty(ETCD_AUTH_PASSWORD)));
+        }
+        // check Client-to-server transport security with HTTPS
+        else if (env.containsProperty(ETCD_SSL_CA_CERTIFICATE)) {
+            // validate that file ETCD_SSL_CA_CERTIFICATE exists
+            validFiles(env, ETCD_SSL_CA_CERTIFICATE);
+
+            // Configure ssl certificates for client
+            SslContextBuilder sslContextBuilder = GrpcSslContexts.forClient()
+                    .trustManager(new File(env.getRequiredProperty(ETCD_SSL_CA_CERTIFICATE))); // ca.pem
+
+            // check Client-to-server authentication with HTTPS client certificates
+
+            // If etcd server configured with using option '--client-cert-auth' client requires client's
+            // pub/private keys.
+            if (env.containsProperty(ETCD_SSL_CLIENT_PUBLIC_CERTIFICATE) && env
+                    .containsProperty(ETCD_SSL_CLIENT__PRIVATE_CERTIFICATE)) {
+                // validate that files exists and readable
+                validFiles(env, ETCD_SSL_CLIENT_PUBLIC_CERTIFICATE, ETCD_SSL_CLIENT__PRIVATE_CERTIFICATE);
+
+                sslContextBuilder.keyManager(new File(env.getRequiredProperty(ETCD_SSL_CLIENT_PUBLIC_CERTIFICATE)),
+                        new File(env.getRequiredProperty(ETCD_SSL_CLIENT__PRIVATE_CERTIFICATE)));
+            }
+            clientBuilder.authority(env.getRequiredProperty(ETCD_SSL_CERT_AUTHORITY))
+                    .sslContext(sslContextBuilder.build());
+        }
+
+        return clientBuilder.build();
+    }
+
+    /**
+     * Check if etcd certificate files are exists and readable
+     */
+    private static void validFiles(PropertyResolver env, String... filesKeys) {
+        for (String fileKey : filesKeys) {
+            File file = new File(env.getRequiredProperty(fileKey));
+            if (!file.exists())
+                throw new IllegalArgumentException("File: " + file.getName() + " not exists");
+            if (!file.canRead())
+                throw new IllegalArgumentException("File: " + file.getName() + " not readable");
+        }
+    }
+
+    private final class Endpoint {
+        private final String url;
+
+        private final Client client;
+
+        private volatile boolean healthy = true;
+
+        // moving average of probe latency in milliseconds
+        private volatile double latency;
+
+        private volatile long failures;
+
+        private volatile long lastCheckTime;
+
+        private Endpoint(String url, Client client) {
+            this.url = url;
+            this.client = client;
+        }
+
+        private void probe() {
+            long start = System.nanoTime();
+            try {
+                client.getKVClient().get(bytesOf("alive"), GetOption.newBuilder().withSerializable(true).build())
+                        .get(healthCheckInterval, TimeUnit.MILLISECONDS);
+                double probeLatency = (System.nanoTime() - start) / 1_000_000D;
+                latency = latency == 0 ? probeLatency : latency + LATENCY_ALPHA * (probeLatency - latency);
+                if (!healthy) {
+                    log.info("Etcd endpoint <{}> is healthy again", url);
+                }
+                healthy = true;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                if (healthy) {
+                    log.warn("Etcd endpoint <{}> health check failed: {}", url, ex.toString());
+                }
+                healthy = false;
+                failures++;
+            } finally {
+                lastCheckTime = System.currentTimeMillis();
+            }
+        }
+    }
+}
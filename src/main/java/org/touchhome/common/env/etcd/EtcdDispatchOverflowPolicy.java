@@ -0,0 +1,16 @@
+package org.touchhome.common.env.etcd;
+
+/**
+ * Determine what dispatch stage does with etcd updates that arrive faster than listeners consume them
+ */
+public enum EtcdDispatchOverflowPolicy {
+    /**
+     * Keep only the latest pending value per key. Update of key that isn't queued yet is dropped if queue is full
+     */
+    COALESCE,
+
+    /**
+     * Deliver every update in revision order while queue has free space, drop new updates when queue is full
+     */
+    DROP
+}
@@ -1,37 +1,46 @@
 package org.touchhome.common.env.etcd;
 
 import io.etcd.jetcd.*;
+import io.etcd.jetcd.common.exception.CompactedException;
 import io.etcd.jetcd.kv.DeleteResponse;
 import io.etcd.jetcd.kv.GetResponse;
 import io.etcd.jetcd.kv.PutResponse;
+import io.etcd.jetcd.lease.LeaseGrantResponse;
 import io.etcd.jetcd.lock.LockResponse;
 import io.etcd.jetcd.options.DeleteOption;
 import io.etcd.jetcd.options.GetOption;
 import io.etcd.jetcd.options.PutOption;
 import io.etcd.jetcd.options.WatchOption;
 import io.etcd.jetcd.watch.WatchEvent;
-import io.grpc.netty.GrpcSslContexts;
-import io.netty.handler.ssl.SslContextBuilder;
+import io.etcd.jetcd.watch.WatchResponse;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.PropertyResolver;
 import org.touchhome.common.env.EnvironmentPropertyHolder;
 import org.touchhome.common.env.EnvironmentPropertyModel;
 import org.touchhome.common.env.EnvironmentPropertyService;
+import org.touchhome.common.env.PropertiesUpdateResult;
 
-import java.io.File;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.touchhome.common.env.WebDocEnvironmentBeanFieldScannerBeanPostProcessor.springConvertValue;
@@ -42,15 +51,15 @@ import static org.touchhome.common.env.WebDocEnvironmentBeanFieldScannerBeanPost
  * Required property ETCD_STORE_PATH which is prefix or path for all properties i.e. /dev/infrastructure/web-services/
  */
 @Log4j2
-public class EtcdEnvironmentPropertyService implements EnvironmentPropertyService {
+public class EtcdEnvironmentPropertyService implements EnvironmentPropertyService, DisposableBean {
     // environment key for storing etcd endpoint url
     public static final String ETCD_ENDPOINTS = "ETCD_ENDPOINTS";
 
     // environment key for storing etcd user name
-    private static final String ETCD_AUTH_USER = "ETCD_AUTH_USER";
+    static final String ETCD_AUTH_USER = "ETCD_AUTH_USER";
 
     // environment key for storing etcd user password
-    private static final String ETCD_AUTH_PASSWORD = "ETCD_AUTH_PASSWORD";
+    static final String ETCD_AUTH_PASSWORD = "ETCD_AUTH_PASSWORD";
 
     // environment key for storing etcd prefix path
     public static final String ETCD_STORE_PATH = "ETCD_STORE_PATH";
@@ -59,20 +68,36 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
     public static final String ETCD_SSL_CA_CERTIFICATE = "ETCD_SSL_CERT_CA_CERT";
 
     // environment key for fetching identify secure client using this TLS certificate file
-    private static final String ETCD_SSL_CLIENT_PUBLIC_CERTIFICATE = "ETCD_SSL_CERT_CLIENT_PUB_CERT";
+    static final String ETCD_SSL_CLIENT_PUBLIC_CERTIFICATE = "ETCD_SSL_CERT_CLIENT_PUB_CERT";
 
     // environment key for fetching identify secure client using this TLS key file
-    private static final String ETCD_SSL_CLIENT__PRIVATE_CERTIFICATE = "ETCD_SSL_CERT_CLIENT_PRV_CERT";
+    static final String ETCD_SSL_CLIENT__PRIVATE_CERTIFICATE = "ETCD_SSL_CERT_CLIENT_PRV_CERT";
 
     // environment key for fetching certificates CN name
     public static final String ETCD_SSL_CERT_AUTHORITY = "ETCD_SSL_CERT_AUTHORITY";
 
     // environment key for fetching maximum message size
-    private static final String ETCD_MAX_INBOUND_MESSAGE_SIZE = "ETCD_MAX_INBOUND_MESSAGE_SIZE";
+    static final String ETCD_MAX_INBOUND_MESSAGE_SIZE = "ETCD_MAX_INBOUND_MESSAGE_SIZE";
 
     private static final Integer ETCD_WATCH_HISTORY_LIMIT = 100;
 
-    private static Client client;
+    // max number of keys in watch history
+    private static final int ETCD_WATCH_HISTORY_MAX_KEYS = 1000;
+
+    // default number of puts in one etcd transaction. Equals etcd default --max-txn-ops
+    private static final int ETCD_TXN_BATCH_SIZE = 128;
+
+    // default number of concurrently sent transactions by updateProperties
+    private static final int ETCD_TXN_MAX_IN_FLIGHT = 4;
+
+    // delay before re-creating failed watcher
+    private static final long ETCD_WATCH_RESUME_DELAY = 1000;
+
+    // environment key to persist last known values of store path on local disk
+    private static final String ETCD_PERSIST_SNAPSHOT = "ETCD_PERSIST_SNAPSHOT";
+
+    // min time between writes of local snapshot file
+    private static final long ETCD_SNAPSHOT_FILE_INTERVAL = 10000;
 
     private static Boolean etcdAvailable;
 
@@ -82,15 +107,108 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
     @Setter
     private boolean loadValues;
 
-    private Watch.Watcher watch;
+    // load whole store path with single range read on startup and start watch from it's revision. Opt-in: whole
+    // store path is held in memory
+    @Setter
+    private boolean bulkLoad;
+
+    // serve getProperty/getProperties from local watch-maintained mirror of store path. Opt-in: reads become
+    // eventually consistent and first read starts watcher
+    @Setter
+    private boolean readCache;
+
+    // max number of keys in local mirror, 0 - unbounded
+    @Setter
+    private int readCacheMaxSize;
+
+    // number of listener dispatch threads. 0 means listeners are executed on etcd watch thread
+    @Setter
+    private int dispatchThreads;
+
+    @Setter
+    private int dispatchQueueCapacity = 1024;
+
+    @Setter
+    private EtcdDispatchOverflowPolicy dispatchOverflowPolicy = EtcdDispatchOverflowPolicy.COALESCE;
+
+    @Setter
+    private boolean dispatchVirtualThreads;
+
+    private EtcdListenerDispatcher dispatcher;
+
+    // created on first listener registration with coalesce window
+    private volatile EtcdUpdateCoalescer coalescer;
+
+    private volatile Watch.Watcher watch;
+
+    // false since watcher failed until it's resumed. Local mirror must not be used for reads in this state
+    private volatile boolean watchHealthy;
+
+    // local copy of store path. null if bulkLoad and readCache are disabled
+    private volatile EtcdPropertySnapshot snapshot;
+
+    // last etcd revision received by watcher. Watcher resumes from next revision after errors
+    private volatile long watchRevision;
+
+    private ScheduledExecutorService watchResumeScheduler;
+
+    // set by destroy. Failed watcher isn't resumed after it
+    private volatile boolean closed;
+
+    // persist local mirror to disk and start from it if etcd isn't reachable. Requires bulkLoad or readCache
+    @Setter
+    private boolean persistSnapshot;
+
+    private EtcdSnapshotFile snapshotFile;
+
+    // mirror was changed since last write of snapshot file
+    private volatile boolean snapshotDirty;
+
+    // true while service works on values restored from snapshot file and reconciles with etcd in background
+    private volatile boolean offline;
+
+    // pool size of shared keep-alive leases for ephemeral keys. 0 - ephemeral keys are disabled
+    @Setter
+    private int sharedLeases;
+
+    // ttl in seconds of shared leases
+    @Setter
+    private long sharedLeaseTTL = 10;
+
+    private EtcdLeaseManager leaseManager;
+
+    private EtcdClientManager clientManager;
+
+    // time in milliseconds between health probes of every etcd endpoint, 0 - disabled. Every probe round holds
+    // own client per endpoint and sends read to it, so probes are opt-in
+    @Setter
+    private long healthCheckInterval;
+
+    // non-linearizable reads that miss local mirror are served by the lowest latency healthy member
+    @Setter
+    private boolean serializableReads;
+
+    // in-process lock contenders queue per key. Both sync and async lock calls pass through it
+    private final EtcdKeyLockQueue localLocks = new EtcdKeyLockQueue();
+
+    private ScheduledExecutorService lockScheduler;
+
+    // exact and prefix listeners. Mutates by addPropertyListener, reads by watch thread without locks
+    private final EtcdListenerIndex listenerIndex = new EtcdListenerIndex();
 
-    private Map<String, List<BiConsumer<String, Object>>> watchProperties = new HashMap<>();
+    private final Map<String, EtcdStat.EtcdLockInfo> lockInfo = new ConcurrentHashMap<>();
 
-    private Map<String, List<BiConsumer<String, Object>>> prefixWatchProperties = new HashMap<>();
+    // results of running synchronizeWithLock calls by key. Uses in single-flight mode
+    private final Map<String, CompletableFuture<Object>> singleFlights = new ConcurrentHashMap<>();
 
-    private Map<String, EtcdStat.EtcdLockInfo> lockInfo = new HashMap<>();
+    // concurrent synchronizeWithLock callers of the same key receive result of the first one instead of waiting
+    @Setter
+    private boolean lockSingleFlight;
+
+    private final EtcdMetrics metrics = new EtcdMetrics();
 
-    private Map<String, List<EtcdStat.EtcdPropertyUpdate>> watchHistory = new HashMap<>();
+    private final EtcdWatchHistory watchHistory = new EtcdWatchHistory(ETCD_WATCH_HISTORY_LIMIT,
+            ETCD_WATCH_HISTORY_MAX_KEYS);
 
     @Getter
     private EnvironmentPropertyHolder env;
@@ -98,9 +216,14 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
     @Override
     public void afterPropertiesSet(EnvironmentPropertyHolder env) {
         this.env = env;
-        this.env.getProperties().put(ETCD_ENDPOINTS,
+        this.env.registerProperty(
                 new EnvironmentPropertyModel(ETCD_ENDPOINTS, String.class, "Etcd url",
                         env.getProperty(ETCD_ENDPOINTS)));
+        this.clientManager = new EtcdClientManager(env, healthCheckInterval, this::onClientRebuilt);
+
+        if (sharedLeases > 0) {
+            leaseManager = new EtcdLeaseManager(this::getClient, metrics, sharedLeases, sharedLeaseTTL);
+        }
 
         log.info("Initialise etcd updatable property service: storePath: <{}>, loadValues: <{}>", storePath,
                 loadValues);
@@ -136,7 +259,7 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
             builder.withLeaseId(leaseId);
         }
 
-        PutResponse putResponse = kvClient.put(key, bsValue, builder.build()).get();
+        PutResponse putResponse = metrics.timeRpc("put", kvClient.put(key, bsValue, builder.build())).get();
 
         if (fetchPreviousValue) {
             // log notification that property was changed
@@ -147,27 +270,75 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
         return null;
     }
 
+    /**
+     * Fire update of all properties in background. Failures are logged
+     */
     @Override
     public void updateProperties(Map<String, String> keyValue) {
-        KV kvClient = getClient().getKVClient();
+        updatePropertiesAsync(keyValue, ETCD_TXN_BATCH_SIZE, ETCD_TXN_MAX_IN_FLIGHT, false)
+                .whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        log.error("Etcd unable update properties <{}>", keyValue.keySet(), ex);
+                    } else if (!result.isSucceeded()) {
+                        log.error("Etcd unable update properties <{}>", result.getFailures().keySet(),
+                                result.getFailures().values().iterator().next());
+                    }
+                });
+    }
 
-        List<CompletableFuture<PutResponse>> futures = new ArrayList<>(keyValue.size());
-        for (Map.Entry<String, String> entry : keyValue.entrySet()) {
-            futures.add(kvClient.put(bytesOf(storePath + entry.getKey()), bytesOf(entry.getValue())));
-        }
+    /**
+     * Write properties with etcd transactions of batchSize puts each
+     *
+     * @param keyValue    - properties to write
+     * @param batchSize   - number of puts in one transaction. Must be positive and not exceed etcd --max-txn-ops
+     * @param maxInFlight - max number of concurrently sent transactions. Must be positive
+     * @param atomic      - write all properties in single transaction, either all or none of them are written
+     * @return per key results
+     */
+    @Override
+    public CompletableFuture<PropertiesUpdateResult> updatePropertiesAsync(Map<String, String> keyValue,
+                                                                           int batchSize, int maxInFlight,
+                                                                           boolean atomic) {
+        log.debug("Etcd update <{}> properties. Batch size: <{}>, atomic: <{}>", keyValue.size(), batchSize, atomic);
+        return new EtcdBatchWriter(getClient().getKVClient(), storePath, metrics)
+                .write(keyValue, batchSize, maxInFlight, atomic);
     }
 
     @Override
     public <T> Map<String, T> getProperties(String prefix, boolean removeKeyPrefix, Function<byte[], T> valueConverter,
                                             Integer limit) throws ExecutionException, InterruptedException {
-        KV kvClient = getClient().getKVClient();
+        return getProperties(prefix, removeKeyPrefix, valueConverter, limit, false);
+    }
+
+    /**
+     * Get properties by prefix. Served from local mirror of store path if it's complete and maintained by healthy
+     * watcher, otherwise(or if linearizable read is requested) reads etcd
+     */
+    @Override
+    public <T> Map<String, T> getProperties(String prefix, boolean removeKeyPrefix, Function<byte[], T> valueConverter,
+                                            Integer limit, boolean linearizable)
+            throws ExecutionException, InterruptedException {
+        EtcdPropertySnapshot snapshot = getReadSnapshot(linearizable);
+        if (snapshot != null && snapshot.isComplete()) {
+            Map<String, T> result = new LinkedHashMap<>();
+            for (Map.Entry<String, EtcdPropertySnapshot.Entry> entry : snapshot.getByPrefix(prefix).entrySet()) {
+                if (limit != null && limit > 0 && result.size() >= limit) {
+                    break;
+                }
+                String key = removeKeyPrefix ? entry.getKey().substring(prefix.length()) : storePath + entry.getKey();
+                result.put(key, valueConverter.apply(entry.getValue().getBytes()));
+            }
+            return result;
+        }
+        KV kvClient = getReadKVClient(linearizable);
         ByteSequence keyPath = bytesOf(storePath + prefix);
-        GetOption.Builder getOptionBuilder = GetOption.newBuilder().withPrefix(keyPath);
+        GetOption.Builder getOptionBuilder = GetOption.newBuilder().withPrefix(keyPath)
+                .withSerializable(!linearizable && serializableReads);
         if (limit != null) {
             getOptionBuilder.withLimit(limit);
         }
 
-        GetResponse response = kvClient.get(keyPath, getOptionBuilder.build()).get();
+        GetResponse response = metrics.timeRpc("get", kvClient.get(keyPath, getOptionBuilder.build())).get();
 
         return response.getKvs().stream().collect(Collectors.toMap(o -> {
             String key = toString(o.getKey());
@@ -175,16 +346,119 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
         }, keyValue -> valueConverter.apply(keyValue.getValue().getBytes())));
     }
 
+    /**
+     * Stream properties by prefix. Range is read lazily page by page(at revision of the first page), so memory usage
+     * doesn't depend on number of keys. Stream should be consumed in one thread
+     *
+     * @param pageSize - number of keys fetched by one etcd request. Must be positive: etcd treats limit 0 as no limit
+     * @throws IllegalArgumentException if pageSize isn't positive
+     */
+    @Override
+    public <T> Stream<Map.Entry<String, T>> streamProperties(String prefix, boolean removeKeyPrefix,
+                                                             Function<byte[], T> valueConverter, int pageSize) {
+        return streamRange(prefix, pageSize, false).map(keyValue ->
+                new AbstractMap.SimpleImmutableEntry<>(toPropertyKey(keyValue, prefix, removeKeyPrefix),
+                        valueConverter.apply(keyValue.getValue().getBytes())));
+    }
+
+    /**
+     * Stream only property keys by prefix without fetching values
+     *
+     * @throws IllegalArgumentException if pageSize isn't positive
+     */
+    @Override
+    public Stream<String> streamPropertyKeys(String prefix, boolean removeKeyPrefix, int pageSize) {
+        return streamRange(prefix, pageSize, true).map(keyValue -> toPropertyKey(keyValue, prefix, removeKeyPrefix));
+    }
+
+    /**
+     * Count properties by prefix without fetching keys and values
+     */
     @Override
     @SneakyThrows
+    public long countProperties(String prefix) {
+        ByteSequence keyPath = bytesOf(storePath + prefix);
+        return metrics.timeRpc("get", getClient().getKVClient()
+                .get(keyPath, GetOption.newBuilder().withPrefix(keyPath).withCountOnly(true).build())).get()
+                .getCount();
+    }
+
+    private Stream<KeyValue> streamRange(String prefix, int pageSize, boolean keysOnly) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive but got: " + pageSize);
+        }
+        EtcdRangeIterator iterator = new EtcdRangeIterator(getClient().getKVClient(), bytesOf(storePath + prefix),
+                pageSize, keysOnly);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    private String toPropertyKey(KeyValue keyValue, String prefix, boolean removeKeyPrefix) {
+        String key = toString(keyValue.getKey());
+        return removeKeyPrefix ? key.substring((storePath + prefix).length()) : key;
+    }
+
+    @Override
     public <T> String getProperty(String key, Function<byte[], T> valueConverter) {
-        KV kvClient = getClient().getKVClient();
+        return getProperty(key, valueConverter, false);
+    }
 
-        GetResponse response = kvClient.get(bytesOf(storePath + key)).get();
-        if (response.getCount() > 0) {
-            return getValue(response.getKvs().get(0));
+    @Override
+    public <T> String getProperty(String key, Function<byte[], T> valueConverter, boolean linearizable) {
+        EtcdPropertyValue propertyValue = getPropertyValue(key, linearizable);
+        return propertyValue == null ? null : propertyValue.getValue();
+    }
+
+    /**
+     * Read property with consistency metadata. Served from local mirror of store path if it's maintained by healthy
+     * watcher, otherwise(or if linearizable read is requested) reads etcd
+     *
+     * @param key          - property name without store path
+     * @param linearizable - force read from etcd
+     * @return property value or null if property not exists
+     */
+    public EtcdPropertyValue getPropertyValue(String key, boolean linearizable) {
+        return readValue(key, getReadSnapshot(linearizable), linearizable);
+    }
+
+    @SneakyThrows
+    private EtcdPropertyValue readValue(String key, EtcdPropertySnapshot snapshot, boolean linearizable) {
+        if (snapshot != null) {
+            EtcdPropertySnapshot.Entry entry = snapshot.get(key);
+            if (entry != null) {
+                return new EtcdPropertyValue(getValue(entry.getValue()), entry.getModRevision(),
+                        snapshot.getRevision(), System.currentTimeMillis() - snapshot.getLastUpdateTime(), false);
+            }
+            if (snapshot.isComplete()) {
+                return null;
+            }
         }
-        return null;
+        boolean serializable = !linearizable && serializableReads;
+        GetOption getOption = GetOption.newBuilder().withSerializable(serializable).build();
+        GetResponse response = metrics.timeRpc("get",
+                getReadKVClient(linearizable).get(bytesOf(storePath + key), getOption)).get();
+        if (response.getCount() == 0) {
+            return null;
+        }
+        KeyValue keyValue = response.getKvs().get(0);
+        if (snapshot != null) {
+            snapshot.putIfAbsent(keyValue, response.getHeader().getRevision());
+        }
+        return new EtcdPropertyValue(getValue(keyValue), keyValue.getModRevision(),
+                response.getHeader().getRevision(), serializable ? -1 : 0, !serializable);
+    }
+
+    /**
+     * Return local mirror of store path if it may be used for reads
+     */
+    private EtcdPropertySnapshot getReadSnapshot(boolean linearizable) {
+        if (linearizable || !readCache) {
+            return null;
+        }
+        if (watch == null) {
+            startWatcherIfRequired();
+        }
+        return watchHealthy || offline ? snapshot : null;
     }
 
     @Override
@@ -196,7 +470,7 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
             builder.withPrefix(key);
         }
 
-        DeleteResponse deleteResponse = kvClient.delete(key, builder.build()).get();
+        DeleteResponse deleteResponse = metrics.timeRpc("delete", kvClient.delete(key, builder.build())).get();
         List<KeyValue> prevKvs = deleteResponse.getPrevKvs();
         if (prevKvs.isEmpty()) {
             return null;
@@ -208,7 +482,11 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
     }
 
     private String getValue(KeyValue keyValue) {
-        return toString(keyValue.getValue()).split(":")[0];
+        return getValue(toString(keyValue.getValue()));
+    }
+
+    private String getValue(String rawValue) {
+        return rawValue.split(":")[0];
     }
 
     private String toString(ByteSequence byteSequence) {
@@ -225,24 +503,44 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
      * @param consumer    - handler that calls on new data income
      */
     @Override
-    @SneakyThrows
     public <T> void addPropertyListener(String key, boolean asPrefix, Class<T> type, String description,
                                         BiConsumer<String, T> consumer) {
+        addPropertyListener(key, asPrefix, type, description, 0, consumer);
+    }
+
+    /**
+     * Register new listener for property 'key'
+     *
+     * @param key            - property name
+     * @param asPrefix       - detect to listen all keys that starts with 'key'
+     * @param type           - property type
+     * @param description    - property description
+     * @param coalesceWindow - time in milliseconds during which updates of the same key are coalesced and only the
+     *                       latest value reaches listeners. 0 - deliver every update
+     * @param consumer       - handler that calls on new data income
+     */
+    @Override
+    @SneakyThrows
+    public <T> void addPropertyListener(String key, boolean asPrefix, Class<T> type, String description,
+                                        long coalesceWindow, BiConsumer<String, T> consumer) {
         log.info("Etcd add property listener for key {} {}", key, asPrefix ? "as prefix" : "");
 
-        Map<String, List<BiConsumer<String, Object>>> propertyHolder = asPrefix ?
-                this.prefixWatchProperties :
-                this.watchProperties;
         startWatcherIfRequired();
 
-        propertyHolder.putIfAbsent(key, new ArrayList<>());
-        propertyHolder.get(key).add((BiConsumer<String, Object>) consumer);
+        if (coalesceWindow > 0 && coalescer == null) {
+            synchronized (listenerIndex) {
+                if (coalescer == null) {
+                    coalescer = new EtcdUpdateCoalescer(this::deliverUpdate);
+                }
+            }
+        }
+        listenerIndex.add(key, asPrefix, coalesceWindow, (BiConsumer<String, Object>) consumer);
 
         if (loadValues && env.containsProperty(key)) {
-            GetResponse response = getClient().getKVClient().get(bytesOf(storePath + key)).get();
-            if (response.getCount() > 0) {
-                String value = getValue(response.getKvs().get(0));
-                callListeners(key, propertyHolder.get(key), value, true);
+            EtcdPropertyValue propertyValue = readValue(key, snapshot, false);
+            if (propertyValue != null) {
+                callListeners(key, listenerIndex.getListeners(key, asPrefix), propertyValue.getValue(),
+                        propertyValue.getModRevision(), true);
             }
         }
     }
@@ -254,8 +552,8 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
     public Collection<EnvironmentPropertyModel> getUpdatableProperties() {
         Map<String, EnvironmentPropertyModel> propertyModels = new HashMap<>();
 
-        propertyModels.putAll(watchProperties.keySet().stream().filter(p -> env.containsProperty(p))
-                .collect(Collectors.toMap(p -> p, p -> env.getProperties().get(p))));
+        propertyModels.putAll(listenerIndex.exactKeys().stream().filter(p -> env.containsProperty(p))
+                .collect(Collectors.toMap(p -> p, p -> env.getSnapshot().getProperties().get(p))));
 
         return propertyModels.values();
     }
@@ -264,29 +562,129 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
     @SneakyThrows
     public long createLease(String id, long leaseTTL) {
         log.debug("Etcd create lease with id: <{}>, ttl: <{}> sec", id, leaseTTL / 1000);
-        return getClient().getLeaseClient().grant(leaseTTL / 1000).get().getID();
+        return metrics.timeRpc("lease", getClient().getLeaseClient().grant(leaseTTL / 1000)).get().getID();
     }
 
     @Override
     @SneakyThrows
     public long refreshLeaseTTL(long leaseId) {
         log.debug("Etcd refresh lease with id: <{}>", leaseId);
-        return getClient().getLeaseClient().keepAliveOnce(leaseId).get().getTTL();
+        return metrics.timeRpc("lease", getClient().getLeaseClient().keepAliveOnce(leaseId)).get().getTTL();
+    }
+
+    /**
+     * Write property attached to shared lease. Property is removed by etcd when application stops keeping lease
+     * alive and is written again if lease is lost and re-granted. Requires sharedLeases &gt; 0
+     */
+    @Override
+    public void updateEphemeralProperty(String key, Object value) throws ExecutionException, InterruptedException {
+        if (leaseManager == null) {
+            throw new IllegalStateException("Shared etcd leases are disabled. Set ETCD_SHARED_LEASES");
+        }
+        leaseManager.putEphemeral(storePath + key, value.toString());
     }
 
     @Override
     public <T> T synchronizeWithLock(String key, long ttl, long acquireLockTimeout, boolean releaseLockOnFinish,
                                      Supplier<T> handler, Supplier<T> unableToLockHandler) {
+        if (localLocks.isHeldByCurrentThread(key)) {
+            // nested call from handler that already holds lock
+            return runLockHandler(handler, unableToLockHandler);
+        }
+        if (lockSingleFlight) {
+            return synchronizeSingleFlight(key, ttl, acquireLockTimeout, releaseLockOnFinish, handler,
+                    unableToLockHandler);
+        }
+        return synchronizeWithLocalLock(key, ttl, acquireLockTimeout, releaseLockOnFinish, handler,
+                unableToLockHandler);
+    }
+
+    /**
+     * Concurrent callers of the same key don't contend in etcd but share result of the one that talks to etcd.
+     * Assumes that all callers of key run the same handler
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T synchronizeSingleFlight(String key, long ttl, long acquireLockTimeout, boolean releaseLockOnFinish,
+                                          Supplier<T> handler, Supplier<T> unableToLockHandler) {
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existingFlight = singleFlights.putIfAbsent(key, flight);
+        if (existingFlight != null) {
+            try {
+                return (T) existingFlight.get(acquireLockTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                log.error("Etcd unable receive shared lock result for lockName <{}>: {}", key, ex.toString());
+            }
+            return unableToLockHandler.get();
+        }
+        try {
+            T value = synchronizeWithLocalLock(key, ttl, acquireLockTimeout, releaseLockOnFinish, handler,
+                    unableToLockHandler);
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException ex) {
+            flight.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            singleFlights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Only one in-process contender per key talks to etcd, others wait in local queue
+     */
+    private <T> T synchronizeWithLocalLock(String key, long ttl, long acquireLockTimeout,
+                                           boolean releaseLockOnFinish, Supplier<T> handler,
+                                           Supplier<T> unableToLockHandler) {
+        long deadline = System.currentTimeMillis() + acquireLockTimeout;
+        EtcdKeyLockQueue.Permit permit = awaitLocalPermit(key, acquireLockTimeout);
+        if (permit == null) {
+            log.error("Etcd acquire lock timeout exceeded for lockName <{}>.", key);
+            return unableToLockHandler.get();
+        }
+        localLocks.markHeldByCurrentThread(key, true);
+        try {
+            return synchronizeWithDistributedLock(key, ttl, Math.max(1, deadline - System.currentTimeMillis()),
+                    releaseLockOnFinish, handler, unableToLockHandler);
+        } finally {
+            localLocks.markHeldByCurrentThread(key, false);
+            permit.release();
+        }
+    }
+
+    private EtcdKeyLockQueue.Permit awaitLocalPermit(String key, long timeout) {
+        CompletableFuture<EtcdKeyLockQueue.Permit> permitFuture = localLocks.acquire(key);
+        try {
+            return permitFuture.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ignore) {
+        }
+        // permit may be granted right after timeout
+        if (!permitFuture.cancel(false) && !permitFuture.isCompletedExceptionally()) {
+            permitFuture.join().release();
+        }
+        return null;
+    }
+
+    private <T> T synchronizeWithDistributedLock(String key, long ttl, long acquireLockTimeout,
+                                                 boolean releaseLockOnFinish, Supplier<T> handler,
+                                                 Supplier<T> unableToLockHandler) {
+        long lockStart = System.nanoTime();
         Long leaseId = lockWithTime(key, ttl, acquireLockTimeout);
+        metrics.recordLockWait(System.nanoTime() - lockStart, leaseId != null);
         if (leaseId == null) {
             return unableToLockHandler.get();
         }
+        long holdStart = System.nanoTime();
         try {
             return handler.get();
         } catch (Exception ex) {
             log.error("Error during task execution, executing fallback", ex);
             return unableToLockHandler.get();
         } finally {
+            metrics.recordLockHold(System.nanoTime() - holdStart);
             if (releaseLockOnFinish) {
                 unlock(leaseId);
                 this.lockInfo.remove(key);
@@ -304,16 +702,35 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
      * @return is etcd is available
      */
     public static boolean isEtcdAvailable(Environment env) {
+        return isEtcdAvailable(env, env.getProperty(ETCD_STORE_PATH),
+                env.getProperty(ETCD_PERSIST_SNAPSHOT, Boolean.class, false));
+    }
+
+    /**
+     * Check if etcd endpoint exists and available. Check is skipped if service persists snapshot and snapshot file
+     * of storePath exists, because service starts from file and connects to etcd in background
+     *
+     * @param storePath       - configured store path of service
+     * @param persistSnapshot - configured persistSnapshot of service
+     */
+    public static boolean isEtcdAvailable(Environment env, String storePath, boolean persistSnapshot) {
         if (etcdAvailable == null) {
             etcdAvailable = false;
             if (!env.containsProperty(ETCD_ENDPOINTS)) {
                 log.error("Etcd endpoint not found. Skip etcd configuration.");
+            } else if (persistSnapshot && storePath != null && new EtcdSnapshotFile(storePath).exists()) {
+                // service starts from snapshot file and connects to etcd in background
+                log.info("Etcd snapshot file found. Skip availability check");
+                etcdAvailable = true;
             } else {
                 String etcdEndpoints = env.getRequiredProperty(ETCD_ENDPOINTS);
                 log.info("Etcd endpoint found <{}>. Checking availability", etcdEndpoints);
                 try {
                     Integer maxTimeout = env.getProperty("ETCD_MAX_CHECK_AVAILABILITY_TIMEOUT", Integer.class, 60);
-                    getClient(env).getKVClient().get(bytesOf("alive")).get(maxTimeout, TimeUnit.SECONDS);
+                    // service creates own managed client, so client of availability check is closed
+                    try (Client client = EtcdClientManager.buildClient(env, etcdEndpoints.split(","))) {
+                        client.getKVClient().get(bytesOf("alive")).get(maxTimeout, TimeUnit.SECONDS);
+                    }
                     log.info("Etcd endpoint <{}> available.", etcdEndpoints);
                     etcdAvailable = true;
                 } catch (Exception ex) {
@@ -325,15 +742,196 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
     }
 
     /**
-     * Create new watcher on all keys or keys that started with 'ETCD_STORE_PATH' if specified
+     * Create new watcher on all keys or keys that started with 'ETCD_STORE_PATH' if specified.
+     * If bulkLoad is set, whole store path is read first and watcher starts from the next revision after read, so no
+     * update between read and watch may be lost.
+     * If persistSnapshot is set and snapshot file exists, values are restored from file without waiting for etcd and
+     * watcher is created in background
      */
     private void startWatcherIfRequired() {
-        if (watch == null) {
-            // listen all keys or with prefix depend on storePath
-            WatchOption watchOption = WatchOption.newBuilder().withPrefix(bytesOf(this.storePath)).build();
+        if (watch == null && !offline && !closed) {
+            synchronized (this) {
+                if (watch == null && !offline && !closed) {
+                    createWatcher();
+                }
+            }
+        }
+    }
+
+    /**
+     * Dispatcher, resume scheduler and snapshot file are created by the first call only. If etcd is unreachable, range
+     * read below fails, watch stays null and the next call retries with the same executors instead of creating new ones
+     */
+    private void createWatcher() {
+        if (dispatcher == null && dispatchThreads > 0) {
+            dispatcher = new EtcdListenerDispatcher(dispatchThreads, dispatchQueueCapacity,
+                    dispatchOverflowPolicy, dispatchVirtualThreads, metrics);
+        }
+        if (watchResumeScheduler == null) {
+            watchResumeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "etcd-watch-resume");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (persistSnapshot && (bulkLoad || readCache)) {
+                snapshotFile = new EtcdSnapshotFile(storePath);
+                watchResumeScheduler.scheduleWithFixedDelay(this::writeSnapshotFile, ETCD_SNAPSHOT_FILE_INTERVAL,
+                        ETCD_SNAPSHOT_FILE_INTERVAL, TimeUnit.MILLISECONDS);
+                EtcdSnapshotFile.Content content = snapshotFile.read();
+                if (content != null) {
+                    snapshot = new EtcdPropertySnapshot(storePath, readCacheMaxSize);
+                    snapshot.restore(content);
+                    offline = true;
+                    log.info("Etcd restored <{}> properties from snapshot file at revision <{}>",
+                            content.getEntries().size(), content.getRevision());
+                    // reload whole store path, so listeners receive values that were changed while application
+                    // was down
+                    watchResumeScheduler.execute(() -> resumeWatcher(true));
+                    return;
+                }
+            }
+        }
+        startWatcher(bulkLoad || readCache ? loadSnapshot(false) + 1 : 0);
+    }
+
+    private void writeSnapshotFile() {
+        if (snapshotDirty && !offline) {
+            snapshotDirty = false;
+            try {
+                snapshotFile.write(snapshot.getRevision(), snapshot.isComplete(), snapshot.getByPrefix(""));
+            } catch (Exception ex) {
+                snapshotDirty = true;
+                log.error("Etcd unable write snapshot file", ex);
+            }
+        }
+    }
+
+    /**
+     * Read whole store path with single range request into local snapshot
+     *
+     * @param fireChanges - pass keys that differ from previous snapshot to listeners
+     * @return etcd revision of read
+     */
+    @SneakyThrows
+    private long loadSnapshot(boolean fireChanges) {
+        ByteSequence prefix = bytesOf(storePath);
+        GetResponse response = metrics.timeRpc("get", getClient().getKVClient()
+                .get(prefix, GetOption.newBuilder().withPrefix(prefix).build())).get();
+        if (snapshot == null) {
+            snapshot = new EtcdPropertySnapshot(storePath, readCacheMaxSize);
+        }
+        snapshot.load(response, fireChanges ?
+                (key, entry) -> deliverUpdate(key, entry == null ? "" : getValue(entry.getValue()),
+                        entry == null ? response.getHeader().getRevision() : entry.getModRevision()) : null);
+        snapshotDirty = true;
+        long revision = response.getHeader().getRevision();
+        log.info("Etcd loaded <{}> properties from <{}> at revision <{}>", response.getCount(), storePath, revision);
+        return revision;
+    }
+
+    /**
+     * Watch keys that started with storePath
+     *
+     * @param startRevision - revision to start watching from, 0 - current revision
+     */
+    private void startWatcher(long startRevision) {
+        // progress notifications confirm that local mirror is up to date even if no key changes
+        WatchOption.Builder watchOption = WatchOption.newBuilder().withPrefix(bytesOf(this.storePath))
+                .withProgressNotify(true);
+        if (startRevision > 0) {
+            watchOption.withRevision(startRevision);
+            watchRevision = startRevision - 1;
+        }
+        watch = getClient().getWatchClient().watch(bytesOf(this.storePath), watchOption.build(),
+                this::handleWatchResponse, this::handleWatchError);
+        watchHealthy = true;
+    }
 
-            watch = getClient().getWatchClient().watch(bytesOf(""), watchOption,
-                    watchResponse -> watchResponse.getEvents().forEach(this::handleEvent));
+    private void handleWatchResponse(WatchResponse watchResponse) {
+        if (snapshot != null) {
+            snapshot.touch();
+        }
+        metrics.recordWatchResponse(watchResponse.getEvents().size(),
+                Math.max(0, watchResponse.getHeader().getRevision() - watchRevision));
+        for (WatchEvent event : watchResponse.getEvents()) {
+            if (snapshot != null) {
+                snapshot.apply(event);
+                snapshotDirty = true;
+            }
+            watchRevision = Math.max(watchRevision, event.getKeyValue().getModRevision());
+            handleEvent(event);
+        }
+    }
+
+    /**
+     * Stop watcher, listener dispatch and background schedulers, revoke shared leases and close etcd clients.
+     * Local mirror is written to snapshot file last time if it was changed
+     */
+    @Override
+    public synchronized void destroy() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (watch != null) {
+            watch.close();
+        }
+        if (watchResumeScheduler != null) {
+            watchResumeScheduler.shutdownNow();
+        }
+        if (snapshotFile != null) {
+            writeSnapshotFile();
+        }
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+        if (lockScheduler != null) {
+            lockScheduler.shutdownNow();
+        }
+        if (leaseManager != null) {
+            leaseManager.close();
+        }
+        if (clientManager != null) {
+            clientManager.close();
+        }
+        log.info("Etcd property service closed: storePath: <{}>", storePath);
+    }
+
+    /**
+     * Watcher is closed by jetcd on non recoverable errors. Re-create it from last seen revision or reload whole
+     * store path if this revision was already compacted
+     */
+    private void handleWatchError(Throwable error) {
+        if (closed) {
+            return;
+        }
+        boolean compacted = error instanceof CompactedException;
+        watchHealthy = false;
+        log.error("Etcd watcher failed. Last revision: <{}>. Compacted: <{}>", watchRevision, compacted, error);
+        watchResumeScheduler.schedule(() -> resumeWatcher(compacted), ETCD_WATCH_RESUME_DELAY,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void resumeWatcher(boolean compacted) {
+        try {
+            if (watch != null) {
+                watch.close();
+            }
+            metrics.recordReconnect();
+            long startRevision = compacted || watchRevision == 0 ? loadSnapshot(true) + 1 : watchRevision + 1;
+            log.info("Etcd resume watcher from revision <{}>", startRevision);
+            startWatcher(startRevision);
+            offline = false;
+        } catch (Exception ex) {
+            if (closed) {
+                return;
+            }
+            log.error("Etcd unable resume watcher", ex);
+            watchResumeScheduler.schedule(() -> resumeWatcher(compacted), ETCD_WATCH_RESUME_DELAY,
+                    TimeUnit.MILLISECONDS);
         }
     }
 
@@ -353,15 +951,27 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
                 return;
             }
 
-            // search by equality
-            if (watchProperties.containsKey(key)) {
-                callListeners(key, watchProperties.get(key), value, false);
+            EtcdUpdateCoalescer coalescer = this.coalescer;
+            long coalesceWindow = coalescer == null ? 0 : listenerIndex.coalesceWindow(key);
+            if (coalesceWindow > 0) {
+                coalescer.submit(key, value, kv.getModRevision(), coalesceWindow);
+            } else {
+                deliverUpdate(key, value, kv.getModRevision());
             }
-            // search by prefix
-            for (Map.Entry<String, List<BiConsumer<String, Object>>> entry : this.prefixWatchProperties.entrySet()) {
-                if (key.startsWith(entry.getKey())) {
-                    callListeners(key, entry.getValue(), value, false);
-                }
+        }
+    }
+
+    /**
+     * Pass update to listeners either directly or via dispatch stage
+     */
+    private void deliverUpdate(String key, String value, long revision) {
+        // search by equality and by all prefixes of key in one trie walk
+        List<BiConsumer<String, Object>> listeners = listenerIndex.match(key);
+        if (!listeners.isEmpty()) {
+            if (dispatcher == null) {
+                callListeners(key, listeners, value, revision, false);
+            } else {
+                dispatcher.dispatch(key, () -> callListeners(key, listeners, value, revision, false));
             }
         }
     }
@@ -369,33 +979,41 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
     /**
      * Invoke registered listeners by specified key
      */
-    private void callListeners(String key, List<BiConsumer<String, Object>> listeners, String value,
+    private void callListeners(String key, List<BiConsumer<String, Object>> listeners, String value, long revision,
                                boolean loadValue) {
         try {
             Object convertedValue = value;
-            EnvironmentPropertyModel model = env.getProperties().get(key);
+            EnvironmentPropertyModel model = env.getSnapshot().getProperties().get(key);
             if (model != null) {
-                if (Objects.equals(model.getValue(), value) || listeners == null) {
+                if (Objects.equals(model.getRawValue(), value) || listeners == null) {
                     return;
                 }
                 // convert value
-                convertedValue = springConvertValue(value, key);
+                long conversionStart = System.nanoTime();
+                try {
+                    convertedValue = springConvertValue(value, key);
+                    metrics.recordConversion(key, System.nanoTime() - conversionStart);
+                } catch (RuntimeException ex) {
+                    metrics.recordConversionFailure(key);
+                    throw ex;
+                }
 
                 // update properties map value
-                model.setValue(value);
+                env.updatePropertyValue(key, value);
             }
             log.debug("Etcd got watch update for ket <{}> with new value <{}>", key, convertedValue);
             // call all listeners
+            long listenerStart = System.nanoTime();
             for (BiConsumer<String, Object> listener : listeners) {
                 listener.accept(key, convertedValue);
             }
-            this.watchHistory.putIfAbsent(key, new ArrayList<>());
-            addToListWithLimit(this.watchHistory.get(key), new EtcdStat.EtcdPropertyUpdate(convertedValue));
+            metrics.recordListener(key, System.nanoTime() - listenerStart);
+            this.watchHistory.add(key, convertedValue, revision);
         } catch (Exception ex) {
             log.error("Unable update environment <{}> with new value <{}>", key, value, ex);
-            if (loadValue && env.getProperties().containsKey(key)) {
-                env.getProperties().get(key)
-                        .setErrorValue(value + "~~~" + Optional.ofNullable(ex.getCause()).orElse(ex).getMessage());
+            if (loadValue) {
+                env.setPropertyError(key,
+                        value + "~~~" + Optional.ofNullable(ex.getCause()).orElse(ex).getMessage());
             }
         }
     }
@@ -404,99 +1022,33 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
      * Validate that keyStr environment property exists and valueObj may be converted to expected type.
      */
     public void validateValueObjType(String keyStr, Object valueObj) {
-        List<BiConsumer<String, Object>> watchProperty = this.watchProperties.get(keyStr);
-        if (watchProperty == null) {
-            Optional<Map.Entry<String, List<BiConsumer<String, Object>>>> optional = this.prefixWatchProperties
-                    .entrySet().stream().filter(e -> keyStr.startsWith(e.getKey())).findAny();
-            if (optional.isPresent()) {
-                watchProperty = optional.get().getValue();
-            }
-        }
-        if (watchProperty == null) {
+        if (!listenerIndex.hasListeners(keyStr)) {
             throw new IllegalArgumentException("Unable handle property: " + keyStr + ". Property is not updatable.");
         }
     }
 
     private Client getClient() {
-        return getClient(env);
-    }
-
-    /**
-     * Creates etcd client.
-     * Methods supports few Etcd Security model. https://coreos.com/etcd/docs/latest/op-guide/security.html
-     * <p>
-     * 1. Basic Authentication
-     * requires env properties:
-     * ETCD_AUTH_USER     - user name,
-     * ETCD_AUTH_PASSWORD - user password
-     * <p>
-     * 2. Client-to-server transport security with HTTPS
-     * requires env properties:
-     * ETCD_SSL_CERT_CA_CERT   - verify certificates of TLS-enabled secure servers using this CA bundle
-     * ETCD_SSL_CERT_AUTHORITY - certificates CN name
-     * <p>
-     * 3. Client-to-server authentication with HTTPS client certificates
-     * requires env properties:
-     * ETCD_SSL_CERT_CA_CERT, ETCD_SSL_CERT_AUTHORITY as described in sec.2
-     * ETCD_SSL_CERT_CLIENT_PUB_CERT - identify secure client using this TLS certificate file
-     * ETCD_SSL_CERT_CLIENT_PRV_CERT - identify secure client using this TLS key file
-     */
-    @SneakyThrows
-    private static Client getClient(PropertyResolver env) {
-        if (client == null) {
-            String[] endpoints = env.getRequiredProperty(ETCD_ENDPOINTS).split(",");
-            ClientBuilder clientBuilder = Client.builder().endpoints(endpoints);
-
-            if (env.containsProperty(ETCD_MAX_INBOUND_MESSAGE_SIZE)) {
-                clientBuilder.maxInboundMessageSize(env.getProperty(ETCD_MAX_INBOUND_MESSAGE_SIZE, Integer.class));
-            }
-
-            // check user/password security model
-            if (env.containsProperty(ETCD_AUTH_USER) && env.containsProperty(ETCD_AUTH_PASSWORD)) {
-                clientBuilder.user(bytesOf(env.getRequiredProperty(ETCD_AUTH_USER)))
-                        .password(bytesOf(env.getRequiredProperty(ETCD_AUTH_PASSWORD)));
-            }
-            // check Client-to-server transport security with HTTPS
-            else if (env.containsProperty(ETCD_SSL_CA_CERTIFICATE)) {
-                // validate that file ETCD_SSL_CA_CERTIFICATE exists
-                validFiles(env, ETCD_SSL_CA_CERTIFICATE);
-
-                // Configure ssl certificates for client
-                SslContextBuilder sslContextBuilder = GrpcSslContexts.forClient()
-                        .trustManager(new File(env.getRequiredProperty(ETCD_SSL_CA_CERTIFICATE))); // ca.pem
-
-                // check Client-to-server authentication with HTTPS client certificates
-
-                // If etcd server configured with using option '--client-cert-auth' client requires client's
-                // pub/private keys.
-                if (env.containsProperty(ETCD_SSL_CLIENT_PUBLIC_CERTIFICATE) && env
-                        .containsProperty(ETCD_SSL_CLIENT__PRIVATE_CERTIFICATE)) {
-                    // validate that files exists and readable
-                    validFiles(env, ETCD_SSL_CLIENT_PUBLIC_CERTIFICATE, ETCD_SSL_CLIENT__PRIVATE_CERTIFICATE);
-
-                    sslContextBuilder.keyManager(new File(env.getRequiredProperty(ETCD_SSL_CLIENT_PUBLIC_CERTIFICATE)),
-                            new File(env.getRequiredProperty(ETCD_SSL_CLIENT__PRIVATE_CERTIFICATE)));
-                }
-                clientBuilder.authority(env.getRequiredProperty(ETCD_SSL_CERT_AUTHORITY))
-                        .sslContext(sslContextBuilder.build());
-            }
+        return clientManager.getClient();
+    }
 
-            client = clientBuilder.build();
-            return client;
-        }
-        return client;
+    /**
+     * Client for reads that don't require linearizability. Serializable reads may be routed to the lowest latency
+     * healthy member
+     */
+    private KV getReadKVClient(boolean linearizable) {
+        return linearizable || !serializableReads ? getClient().getKVClient() :
+                clientManager.getReadClient().getKVClient();
     }
 
     /**
-     * Check if etcd certificate files are exists and readable
+     * Security configuration was changed and clients were rebuilt. Watcher of the old client is closed, so it's
+     * resumed on the new one
      */
-    private static void validFiles(PropertyResolver env, String... filesKeys) {
-        for (String fileKey : filesKeys) {
-            File file = new File(env.getRequiredProperty(fileKey));
-            if (!file.exists())
-                throw new IllegalArgumentException("File: " + file.getName() + " not exists");
-            if (!file.canRead())
-                throw new IllegalArgumentException("File: " + file.getName() + " not readable");
+    private void onClientRebuilt() {
+        metrics.recordReconnect();
+        if (watch != null) {
+            watchHealthy = false;
+            watchResumeScheduler.execute(() -> resumeWatcher(false));
         }
     }
 
@@ -504,10 +1056,10 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
         Long leaseId = null;
         try {
             log.trace("Etcd try lock variable <{}> with ttl: <{}>", lockName, leaseTTL);
-            leaseId = getClient().getLeaseClient().grant(leaseTTL / 1000).get().getID();
+            leaseId = metrics.timeRpc("lease", getClient().getLeaseClient().grant(leaseTTL / 1000)).get().getID();
             log.debug("Etcd created leaseId <{}> with ttl: <{}>", leaseId, leaseTTL);
-            LockResponse lockResponse = getClient().getLockClient()
-                    .lock(ByteSequence.from(lockName.getBytes()), leaseId).get(maxLockTimeout, TimeUnit.MILLISECONDS);
+            LockResponse lockResponse = metrics.timeRpc("lock", getClient().getLockClient()
+                    .lock(ByteSequence.from(lockName.getBytes()), leaseId)).get(maxLockTimeout, TimeUnit.MILLISECONDS);
             log.debug("Etcd created key: <{}> that attached to lease: <{}> with leaseTTL: <{}> and maxLockTimeout: "
                     + "<{}>", lockName, leaseId, leaseTTL, maxLockTimeout);
 
@@ -529,33 +1081,192 @@ public class EtcdEnvironmentPropertyService implements EnvironmentPropertyServic
         return null;
     }
 
+    /**
+     * Non-blocking variant of synchronizeWithLock. No thread is parked while waiting for lock: in-process contenders
+     * of the same key are queued in FIFO order and only queue head talks to etcd. Nested call for key that is held
+     * by current thread(from handler) runs handler immediately.
+     * Cancelling returned future removes contender from queue or releases lock that is acquired later.
+     *
+     * @param executor - executor that runs handler and unableToLockHandler
+     */
+    @Override
+    public <T> CompletableFuture<T> synchronizeWithLockAsync(String key, long ttl, long acquireLockTimeout,
+                                                             boolean releaseLockOnFinish, Supplier<T> handler,
+                                                             Supplier<T> unableToLockHandler, Executor executor) {
+        if (localLocks.isHeldByCurrentThread(key)) {
+            return CompletableFuture.completedFuture(runLockHandler(handler, unableToLockHandler));
+        }
+        long deadline = System.currentTimeMillis() + acquireLockTimeout;
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<EtcdKeyLockQueue.Permit> permitFuture = localLocks.acquire(key);
+        ScheduledFuture<?> localTimeout = getLockScheduler().schedule(() -> permitFuture.completeExceptionally(
+                new TimeoutException("Local lock timeout")), acquireLockTimeout, TimeUnit.MILLISECONDS);
+
+        permitFuture.whenComplete((permit, permitError) -> {
+            localTimeout.cancel(false);
+            if (permitError != null) {
+                log.error("Etcd acquire lock timeout exceeded for lockName <{}>.", key);
+                completeUnableToLock(result, unableToLockHandler, executor);
+                return;
+            }
+            if (result.isDone()) {
+                permit.release();
+                return;
+            }
+            long remainingTimeout = Math.max(1, deadline - System.currentTimeMillis());
+            long lockStart = System.nanoTime();
+            lockAsync(key, ttl, remainingTimeout, releaseLockOnFinish).whenComplete((lock, lockError) -> {
+                metrics.recordLockWait(System.nanoTime() - lockStart, lockError == null);
+                if (lockError != null) {
+                    log.error("Etcd unable acquire lock <{}>: {}", key, lockError.toString());
+                    permit.release();
+                    completeUnableToLock(result, unableToLockHandler, executor);
+                } else if (result.isDone()) {
+                    lock.release();
+                    permit.release();
+                } else {
+                    executor.execute(() -> {
+                        localLocks.markHeldByCurrentThread(key, true);
+                        long holdStart = System.nanoTime();
+                        try {
+                            result.complete(runLockHandler(handler, unableToLockHandler));
+                        } finally {
+                            metrics.recordLockHold(System.nanoTime() - holdStart);
+                            localLocks.markHeldByCurrentThread(key, false);
+                            if (releaseLockOnFinish) {
+                                lock.release();
+                            }
+                            permit.release();
+                        }
+                    });
+                }
+            });
+        });
+        result.whenComplete((value, ex) -> {
+            if (result.isCancelled()) {
+                permitFuture.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    private <T> T runLockHandler(Supplier<T> handler, Supplier<T> unableToLockHandler) {
+        try {
+            return handler.get();
+        } catch (Exception ex) {
+            log.error("Error during task execution, executing fallback", ex);
+            return unableToLockHandler.get();
+        }
+    }
+
+    private <T> void completeUnableToLock(CompletableFuture<T> result, Supplier<T> unableToLockHandler,
+                                          Executor executor) {
+        if (!result.isDone()) {
+            executor.execute(() -> {
+                try {
+                    result.complete(unableToLockHandler.get());
+                } catch (Exception ex) {
+                    result.completeExceptionally(ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * Acquire etcd lock without blocking. Lease is granted per lock, because etcd lock key is made of lock name and
+     * lease id, so contenders that share lease would hold the same key
+     */
+    private CompletableFuture<EtcdLockHandle> lockAsync(String lockName, long leaseTTL, long maxLockTimeout,
+                                                        boolean releaseLockOnFinish) {
+        CompletableFuture<EtcdLockHandle> result = new CompletableFuture<>();
+        CompletableFuture<Long> leaseFuture;
+        try {
+            leaseFuture = metrics.timeRpc("lease", getClient().getLeaseClient().grant(leaseTTL / 1000))
+                    .thenApply(LeaseGrantResponse::getID);
+        } catch (Exception ex) {
+            result.completeExceptionally(ex);
+            return result;
+        }
+        ScheduledFuture<?> timeout = getLockScheduler().schedule(() -> result.completeExceptionally(
+                new TimeoutException("Etcd lock timeout")), maxLockTimeout, TimeUnit.MILLISECONDS);
+        // revoking lease aborts pending lock request
+        result.whenComplete((lock, ex) -> {
+            if (ex != null) {
+                leaseFuture.thenAccept(this::unlock);
+            }
+        });
+        leaseFuture.thenCompose(leaseId -> metrics.timeRpc("lock", getClient().getLockClient()
+                .lock(ByteSequence.from(lockName.getBytes()), leaseId))
+                .thenApply(lockResponse -> new EtcdLockHandle(lockName, leaseId)))
+                .whenComplete((lock, ex) -> {
+                    timeout.cancel(false);
+                    if (ex != null) {
+                        result.completeExceptionally(ex);
+                    } else if (result.complete(lock)) {
+                        this.lockInfo.put(lockName,
+                                new EtcdStat.EtcdLockInfo(lockName, leaseTTL, maxLockTimeout, lock.leaseId));
+                    } else {
+                        // lock granted after timeout or cancellation
+                        lock.release();
+                    }
+                });
+        return result;
+    }
+
+    private synchronized ScheduledExecutorService getLockScheduler() {
+        if (lockScheduler == null) {
+            lockScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "etcd-lock-timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return lockScheduler;
+    }
+
     private void unlock(Long leaseId) {
         if (leaseId != null) {
             try {
                 // with revoking lease, all associated keys would be removed also
-                getClient().getLeaseClient().revoke(leaseId);
+                metrics.timeRpc("lease", getClient().getLeaseClient().revoke(leaseId));
             } catch (Exception e) {
                 log.error("Etcd unlock unknown exception", e);
             }
         }
     }
 
+    /**
+     * Acquired etcd lock that is released by revoking own lease
+     */
+    private final class EtcdLockHandle {
+        private final String lockName;
+
+        private final long leaseId;
+
+        private EtcdLockHandle(String lockName, long leaseId) {
+            this.lockName = lockName;
+            this.leaseId = leaseId;
+        }
+
+        private void release() {
+            unlock(leaseId);
+            lockInfo.remove(lockName);
+        }
+    }
+
     public static ByteSequence bytesOf(final String string) {
         return ByteSequence.from(string, UTF_8);
     }
 
     @Override
     public EtcdStat getEtcdStat() {
-        return new EtcdStat().setEtcdAvailable(true).setLockInfo(this.lockInfo).setWatchHistory(this.watchHistory);
-    }
-
-    /**
-     * Add item to collection with removing oldest one if reach limitation
-     */
-    private static <T, C extends List<T>> void addToListWithLimit(C list, T itemToAdd) {
-        list.add(itemToAdd);
-        while (list.size() > EtcdEnvironmentPropertyService.ETCD_WATCH_HISTORY_LIMIT) {
-            list.remove(0);
-        }
+        return new EtcdStat().setEtcdAvailable(true).setLockInfo(this.lockInfo).setWatchHistory(this.watchHistory.snapshot())
+                .setDispatchStat(dispatcher == null ? null : dispatcher.getStat())
+                .setWatchRevision(watchRevision)
+                .setLeaseStat(leaseManager == null ? null : leaseManager.getStat())
+                .setCoalescedUpdates(coalescer == null ? Collections.emptyMap() : coalescer.getCoalescedCount())
+                .setEndpointStat(clientManager.getStat())
+                .setMetrics(metrics.getHistogramStat())
+                .setCounters(metrics.getCounterStat());
     }
 }
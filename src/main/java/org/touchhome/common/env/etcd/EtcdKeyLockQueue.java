@@ -0,0 +1,108 @@
+package org.touchhome.common.env.etcd;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process fair lock per key in front of etcd lock client. Contenders of the same key are queued in FIFO order
+ * without blocking threads and only permit holder talks to etcd. Cancelled or timed out waiters are skipped.
+ * Thread that runs code under permit may be marked as holder, so nested lock of the same key is reentrant.
+ */
+final class EtcdKeyLockQueue {
+    private final ConcurrentMap<String, KeyQueue> queues = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<Set<String>> heldKeys = ThreadLocal.withInitial(HashSet::new);
+
+    /**
+     * Return future that is completed with permit when all previous contenders of key released their permits.
+     * Cancelling or completing future exceptionally removes contender from queue
+     */
+    CompletableFuture<Permit> acquire(String key) {
+        CompletableFuture<Permit> future = new CompletableFuture<>();
+        boolean[] granted = new boolean[1];
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                queue = new KeyQueue();
+            }
+            if (queue.locked) {
+                queue.waiters.add(future);
+            } else {
+                queue.locked = true;
+                granted[0] = true;
+            }
+            return queue;
+        });
+        if (granted[0] && !future.complete(new Permit(key))) {
+            release(key);
+        }
+        return future;
+    }
+
+    boolean isHeldByCurrentThread(String key) {
+        return heldKeys.get().contains(key);
+    }
+
+    void markHeldByCurrentThread(String key, boolean held) {
+        if (held) {
+            heldKeys.get().add(key);
+        } else {
+            heldKeys.get().remove(key);
+        }
+    }
+
+    /**
+     * Number of keys that are locked or have waiters
+     */
+    int size() {
+        return queues.size();
+    }
+
+    private void release(String key) {
+        while (true) {
+            CompletableFuture<Permit>[] next = new CompletableFuture[1];
+            queues.computeIfPresent(key, (k, queue) -> {
+                CompletableFuture<Permit> waiter;
+                while ((waiter = queue.waiters.poll()) != null) {
+                    if (!waiter.isDone()) {
+                        next[0] = waiter;
+                        return queue;
+                    }
+                }
+                // nobody waits, remove queue
+                return null;
+            });
+            // waiter may be cancelled between poll and complete, pass permit further in this case
+            if (next[0] == null || next[0].complete(new Permit(key))) {
+                return;
+            }
+        }
+    }
+
+    private static final class KeyQueue {
+        private final Deque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+
+        private boolean locked;
+    }
+
+    final class Permit {
+        private final String key;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(String key) {
+            this.key = key;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                EtcdKeyLockQueue.this.release(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.touchhome.common.env.etcd;
+
+import io.etcd.jetcd.Client;
+import io.etcd.jetcd.lease.LeaseKeepAliveResponse;
+import io.etcd.jetcd.options.PutOption;
+import io.etcd.jetcd.support.CloseableClient;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static org.touchhome.common.env.etcd.EtcdEnvironmentPropertyService.bytesOf;
+
+/**
+ * Pool of long-lived etcd leases that are kept alive by keep-alive streams.
+ * Ephemeral keys are attached to shared leases instead of granting and revoking lease per key. Locks never use
+ * shared leases: etcd lock key is made of lock name and lease id, so two contenders with the same lease would both
+ * own the lock.
+ * If shared lease is lost(keep-alive stream failed and lease expired), new lease is granted and ephemeral keys
+ * are written again with the new lease.
+ */
+@Log4j2
+final class EtcdLeaseManager {
+    // delay before re-granting failed lease
+    private static final long REGRANT_DELAY = 1000;
+
+    // max time in milliseconds to wait for lease revoke on close
+    private static final long REVOKE_TIMEOUT = 3000;
+
+    private final Supplier<Client> clientSupplier;
+
+    private final EtcdMetrics metrics;
+
+    // ttl in seconds of shared leases
+    private final long leaseTTL;
+
+    private final SharedLease[] leases;
+
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "etcd-lease-manager");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    EtcdLeaseManager(Supplier<Client> clientSupplier, EtcdMetrics metrics, int poolSize, long leaseTTL) {
+        this.clientSupplier = clientSupplier;
+        this.metrics = metrics;
+        this.leaseTTL = leaseTTL;
+        this.leases = new SharedLease[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            leases[i] = new SharedLease();
+        }
+        log.info("Etcd lease manager created. Pool size: <{}>, ttl: <{}> sec", poolSize, leaseTTL);
+    }
+
+    /**
+     * Write key attached to shared lease. Key is written again if lease is lost and re-granted
+     */
+    void putEphemeral(String key, String value) throws ExecutionException, InterruptedException {
+        SharedLease lease = nextLease();
+        long leaseId = lease.ensureAlive();
+        lease.ephemeralKeys.put(key, value);
+        metrics.timeRpc("put", clientSupplier.get().getKVClient().put(bytesOf(key), bytesOf(value),
+                PutOption.newBuilder().withLeaseId(leaseId).build())).get();
+    }
+
+    /**
+     * Stop keep-alive streams and revoke shared leases, so ephemeral keys are removed without waiting for ttl
+     */
+    void close() {
+        scheduler.shutdownNow();
+        for (SharedLease lease : leases) {
+            lease.close();
+        }
+    }
+
+    List<EtcdStat.EtcdLeaseStat> getStat() {
+        List<EtcdStat.EtcdLeaseStat> stat = new ArrayList<>(leases.length);
+        for (SharedLease lease : leases) {
+            stat.add(new EtcdStat.EtcdLeaseStat(lease.id, lease.alive, lease.ttl, lease.keepAlives.sum(),
+                    lease.failures.sum(), lease.grants.sum(), lease.lastKeepAliveTime, lease.ephemeralKeys.size()));
+        }
+        return stat;
+    }
+
+    private SharedLease nextLease() {
+        return leases[(roundRobin.getAndIncrement() & Integer.MAX_VALUE) % leases.length];
+    }
+
+    private final class SharedLease implements StreamObserver<LeaseKeepAliveResponse> {
+        private final Map<String, String> ephemeralKeys = new ConcurrentHashMap<>();
+
+        private final LongAdder keepAlives = new LongAdder();
+
+        private final LongAdder failures = new LongAdder();
+
+        private final LongAdder grants = new LongAdder();
+
+        private volatile long id;
+
+        private volatile boolean alive;
+
+        // ttl in seconds reported by last keep-alive response
+        private volatile long ttl;
+
+        private volatile long lastKeepAliveTime;
+
+        private CloseableClient keepAliveClient;
+
+        private long ensureAlive() {
+            if (alive) {
+                return id;
+            }
+            return grant();
+        }
+
+        private synchronized long grant() {
+            if (alive) {
+                return id;
+            }
+            try {
+                if (keepAliveClient != null) {
+                    keepAliveClient.close();
+                }
+                Client client = clientSupplier.get();
+                id = metrics.timeRpc("lease", client.getLeaseClient().grant(leaseTTL)).get().getID();
+                ttl = leaseTTL;
+                grants.increment();
+                keepAliveClient = client.getLeaseClient().keepAlive(id, this);
+                alive = true;
+                for (String key : ephemeralKeys.keySet()) {
+                    rePut(key, id);
+                }
+                log.debug("Etcd granted shared lease <{}>. Ephemeral keys: <{}>", id, ephemeralKeys.size());
+                return id;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while granting etcd lease", ex);
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Unable grant etcd lease", ex.getCause());
+            }
+        }
+
+        /**
+         * Write ephemeral key with re-granted lease. Failed write is repeated while lease is alive and key is
+         * still registered, otherwise key would silently disappear from etcd
+         */
+        private void rePut(String key, long leaseId) {
+            String value = ephemeralKeys.get(key);
+            if (value == null || !alive || id != leaseId) {
+                return;
+            }
+            metrics.timeRpc("put", clientSupplier.get().getKVClient().put(bytesOf(key), bytesOf(value),
+                    PutOption.newBuilder().withLeaseId(leaseId).build())).whenComplete((response, ex) -> {
+                if (ex != null) {
+                    log.error("Etcd unable re-put ephemeral key <{}> with shared lease <{}>", key, leaseId, ex);
+                    try {
+                        scheduler.schedule(() -> rePut(key, leaseId), REGRANT_DELAY, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException ignore) {
+                        // lease manager is closed
+                    }
+                }
+            });
+        }
+
+        private synchronized void close() {
+            ephemeralKeys.clear();
+            if (keepAliveClient != null) {
+                keepAliveClient.close();
+                keepAliveClient = null;
+            }
+            if (alive) {
+                alive = false;
+                try {
+                    clientSupplier.get().getLeaseClient().revoke(id).get(REVOKE_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | TimeoutException ex) {
+                    log.warn("Etcd unable revoke shared lease <{}>. It expires after ttl", id, ex);
+                }
+            }
+        }
+
+        @Override
+        public void onNext(LeaseKeepAliveResponse response) {
+            keepAlives.increment();
+            ttl = response.getTTL();
+            lastKeepAliveTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            log.error("Etcd keep-alive of shared lease <{}> failed", id, error);
+            failures.increment();
+            lost();
+        }
+
+        @Override
+        public void onCompleted() {
+            log.warn("Etcd keep-alive of shared lease <{}> completed", id);
+            lost();
+        }
+
+        private void lost() {
+            alive = false;
+            if (!ephemeralKeys.isEmpty()) {
+                scheduler.schedule(this::regrant, REGRANT_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void regrant() {
+            try {
+                ensureAlive();
+            } catch (Exception ex) {
+                log.error("Etcd unable re-grant shared lease", ex);
+                scheduler.schedule(this::regrant, REGRANT_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.touchhome.common.env.etcd;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatch stage between etcd watch thread and property listeners.
+ * Keys are hashed to partitions, each partition has single worker thread and bounded queue, so listeners of the same
+ * key are executed in revision order while slow listener stalls only own partition instead of the watch stream.
+ * What happens with updates that arrive faster than listeners consume them depends on EtcdDispatchOverflowPolicy.
+ */
+@Log4j2
+final class EtcdListenerDispatcher {
+    // min time in milliseconds between warnings about dropped updates
+    private static final long DROP_WARN_INTERVAL = 10000;
+
+    private final Partition[] partitions;
+
+    private final Thread[] workers;
+
+    private final EtcdDispatchOverflowPolicy overflowPolicy;
+
+    private final int queueCapacity;
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder executed = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final AtomicInteger maxQueued = new AtomicInteger();
+
+    // time of last warning about dropped update
+    private final AtomicLong lastDropWarnTime = new AtomicLong();
+
+    private final EtcdMetrics metrics;
+
+    EtcdListenerDispatcher(int threads, int queueCapacity, EtcdDispatchOverflowPolicy overflowPolicy,
+                           boolean virtualThreads, EtcdMetrics metrics) {
+        this.overflowPolicy = overflowPolicy;
+        this.metrics = metrics;
+        this.queueCapacity = queueCapacity;
+        ThreadFactory threadFactory = createThreadFactory(virtualThreads);
+        this.partitions = new Partition[threads];
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            partitions[i] = new Partition(queueCapacity);
+            workers[i] = threadFactory.newThread(partitions[i]);
+            workers[i].setName("etcd-dispatch-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        log.info("Etcd listener dispatcher started. Threads: <{}>, queue capacity: <{}>, overflow policy: <{}>, "
+                + "virtual threads: <{}>", threads, queueCapacity, overflowPolicy, virtualThreads);
+    }
+
+    /**
+     * Queue listeners invocation for key. Never blocks caller
+     */
+    void dispatch(String key, Runnable task) {
+        submitted.increment();
+        partitions[(key.hashCode() & Integer.MAX_VALUE) % partitions.length].submit(key, task);
+    }
+
+    /**
+     * Stop worker threads. Queued updates are discarded, running listener is interrupted
+     */
+    void close() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    EtcdStat.EtcdDispatchStat getStat() {
+        int queued = 0;
+        for (Partition partition : partitions) {
+            queued += partition.queue.size();
+        }
+        return new EtcdStat.EtcdDispatchStat(partitions.length, queueCapacity, overflowPolicy, queued,
+                maxQueued.get(), submitted.sum(), executed.sum(), coalesced.sum(), dropped.sum());
+    }
+
+    /**
+     * Virtual threads available since jdk 21. Library compiles against older jdk, so they are looked up reflectively
+     */
+    private static ThreadFactory createThreadFactory(boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            } catch (Exception ex) {
+                log.warn("Etcd dispatcher unable to use virtual threads. Fallback to platform threads");
+            }
+        }
+        return Executors.defaultThreadFactory();
+    }
+
+    private final class Partition implements Runnable {
+        private final BlockingQueue<PendingTask> queue;
+
+        // latest not yet executed task per key. Uses only with COALESCE policy
+        private final ConcurrentMap<String, PendingTask> pending = new ConcurrentHashMap<>();
+
+        private Partition(int queueCapacity) {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        private void submit(String key, Runnable task) {
+            if (overflowPolicy == EtcdDispatchOverflowPolicy.COALESCE) {
+                PendingTask[] created = new PendingTask[1];
+                pending.compute(key, (k, existing) -> {
+                    if (existing != null) {
+                        existing.task = task;
+                        coalesced.increment();
+                        return existing;
+                    }
+                    return created[0] = new PendingTask(k, task);
+                });
+                if (created[0] != null && !offer(created[0])) {
+                    pending.remove(key, created[0]);
+                }
+            } else {
+                offer(new PendingTask(key, task));
+            }
+        }
+
+        private boolean offer(PendingTask pendingTask) {
+            if (!queue.offer(pendingTask)) {
+                dropped.increment();
+                metrics.recordDispatchDrop();
+                warnDropped(pendingTask.key);
+                return false;
+            }
+            int size = queue.size();
+            if (size > maxQueued.get()) {
+                maxQueued.accumulateAndGet(size, Math::max);
+            }
+            return true;
+        }
+
+        /**
+         * Overflowed queue drops every following update, so warning is logged at most once per DROP_WARN_INTERVAL
+         * with total number of dropped updates
+         */
+        private void warnDropped(String key) {
+            long now = System.currentTimeMillis();
+            long lastWarnTime = lastDropWarnTime.get();
+            if (now - lastWarnTime >= DROP_WARN_INTERVAL && lastDropWarnTime.compareAndSet(lastWarnTime, now)) {
+                log.warn("Etcd dispatch queue is full. Drop update for key <{}>. Dropped updates: <{}>", key,
+                        dropped.sum());
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                PendingTask pendingTask;
+                try {
+                    pendingTask = queue.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (overflowPolicy == EtcdDispatchOverflowPolicy.COALESCE) {
+                    // after removal no submit may replace task, so read below sees the latest one
+                    pending.remove(pendingTask.key, pendingTask);
+                }
+                try {
+                    pendingTask.task.run();
+                } catch (Throwable ex) {
+                    log.error("Etcd listener execution failed for key <{}>", pendingTask.key, ex);
+                }
+                executed.increment();
+            }
+        }
+    }
+
+    private static final class PendingTask {
+        private final String key;
+
+        private volatile Runnable task;
+
+        private PendingTask(String key, Runnable task) {
+            this.key = key;
+            this.task = task;
+        }
+    }
+}
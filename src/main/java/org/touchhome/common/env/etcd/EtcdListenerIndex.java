@@ -0,0 +1,192 @@
+package org.touchhome.common.env.etcd;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Copy-on-write prefix trie of etcd property listeners.
+ * Writers (addPropertyListener) copy only the path from root to the key node and publish a new root, readers (etcd
+ * watch thread) walk the current root without locks. Resolving listeners for a key costs O(key length) regardless of
+ * how many exact or prefix listeners are registered.
+ */
+final class EtcdListenerIndex {
+    private volatile Node root = Node.EMPTY;
+
+    synchronized void add(String key, boolean asPrefix, long coalesceWindow, BiConsumer<String, Object> listener) {
+        root = root.with(key, 0, asPrefix, coalesceWindow, listener);
+    }
+
+    /**
+     * Return listeners that were registered for exactly this key, either as exact key or as prefix
+     */
+    List<BiConsumer<String, Object>> getListeners(String key, boolean asPrefix) {
+        Node node = root.find(key);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(asPrefix ? node.prefixListeners : node.exactListeners);
+    }
+
+    /**
+     * Collect all listeners that must be fired for key: exact listeners of key and listeners of all prefixes of key
+     */
+    List<BiConsumer<String, Object>> match(String key) {
+        List<BiConsumer<String, Object>> result = null;
+        Node node = root;
+        for (int i = 0; ; i++) {
+            if (node.prefixListeners.length > 0) {
+                result = addAll(result, node.prefixListeners);
+            }
+            if (i == key.length()) {
+                if (node.exactListeners.length > 0) {
+                    result = addAll(result, node.exactListeners);
+                }
+                break;
+            }
+            node = node.child(key.charAt(i));
+            if (node == null) {
+                break;
+            }
+        }
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    /**
+     * Return max coalesce window in milliseconds of exact listeners of key and listeners of all prefixes of key.
+     */
+    long coalesceWindow(String key) {
+        long window = 0;
+        Node node = root;
+        for (int i = 0; ; i++) {
+            window = Math.max(window, node.prefixWindow);
+            if (i == key.length()) {
+                return Math.max(window, node.exactWindow);
+            }
+            node = node.child(key.charAt(i));
+            if (node == null) {
+                return window;
+            }
+        }
+    }
+
+    /**
+     * Check if key has any exact or prefix listener
+     */
+    boolean hasListeners(String key) {
+        Node node = root;
+        for (int i = 0; ; i++) {
+            if (node.prefixListeners.length > 0) {
+                return true;
+            }
+            if (i == key.length()) {
+                return node.exactListeners.length > 0;
+            }
+            node = node.child(key.charAt(i));
+            if (node == null) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Return all keys that have exact (non prefix) listeners
+     */
+    Set<String> exactKeys() {
+        Set<String> keys = new TreeSet<>();
+        collectExactKeys(root, new StringBuilder(), keys);
+        return keys;
+    }
+
+    private static void collectExactKeys(Node node, StringBuilder path, Set<String> keys) {
+        if (node.exactListeners.length > 0) {
+            keys.add(path.toString());
+        }
+        for (int i = 0; i < node.chars.length; i++) {
+            path.append(node.chars[i]);
+            collectExactKeys(node.children[i], path, keys);
+            path.setLength(path.length() - 1);
+        }
+    }
+
+    private static List<BiConsumer<String, Object>> addAll(List<BiConsumer<String, Object>> result,
+                                                           BiConsumer<String, Object>[] listeners) {
+        if (result == null) {
+            result = new ArrayList<>(listeners.length + 2);
+        }
+        Collections.addAll(result, listeners);
+        return result;
+    }
+
+    /**
+     * Immutable trie node. Children are stored as sorted char array with parallel node array for binary search.
+     */
+    @SuppressWarnings("unchecked")
+    private static final class Node {
+        private static final BiConsumer<String, Object>[] NO_LISTENERS = new BiConsumer[0];
+        private static final Node EMPTY = new Node(new char[0], new Node[0], NO_LISTENERS, NO_LISTENERS, 0, 0);
+
+        private final char[] chars;
+        private final Node[] children;
+        private final BiConsumer<String, Object>[] exactListeners;
+        private final BiConsumer<String, Object>[] prefixListeners;
+        private final long exactWindow;
+        private final long prefixWindow;
+
+        private Node(char[] chars, Node[] children, BiConsumer<String, Object>[] exactListeners,
+                     BiConsumer<String, Object>[] prefixListeners, long exactWindow, long prefixWindow) {
+            this.chars = chars;
+            this.children = children;
+            this.exactListeners = exactListeners;
+            this.prefixListeners = prefixListeners;
+            this.exactWindow = exactWindow;
+            this.prefixWindow = prefixWindow;
+        }
+
+        private Node child(char c) {
+            int index = Arrays.binarySearch(chars, c);
+            return index < 0 ? null : children[index];
+        }
+
+        private Node find(String key) {
+            Node node = this;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            return node;
+        }
+
+        private Node with(String key, int depth, boolean asPrefix, long window, BiConsumer<String, Object> listener) {
+            if (depth == key.length()) {
+                return asPrefix ?
+                        new Node(chars, children, exactListeners, append(prefixListeners, listener), exactWindow,
+                                Math.max(prefixWindow, window)) :
+                        new Node(chars, children, append(exactListeners, listener), prefixListeners,
+                                Math.max(exactWindow, window), prefixWindow);
+            }
+            char c = key.charAt(depth);
+            int index = Arrays.binarySearch(chars, c);
+            if (index >= 0) {
+                Node[] newChildren = children.clone();
+                newChildren[index] = children[index].with(key, depth + 1, asPrefix, window, listener);
+                return new Node(chars, newChildren, exactListeners, prefixListeners, exactWindow, prefixWindow);
+            }
+            int insertAt = -index - 1;
+            char[] newChars = new char[chars.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            newChars[insertAt] = c;
+            newChildren[insertAt] = EMPTY.with(key, depth + 1, asPrefix, window, listener);
+            System.arraycopy(chars, insertAt, newChars, insertAt + 1, chars.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            return new Node(newChars, newChildren, exactListeners, prefixListeners, exactWindow, prefixWindow);
+        }
+
+        private static BiConsumer<String, Object>[] append(BiConsumer<String, Object>[] listeners,
+                                                            BiConsumer<String, Object> listener) {
+            BiConsumer<String, Object>[] result = Arrays.copyOf(listeners, listeners.length + 1);
+            result[listeners.length] = listener;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.touchhome.common.env.etcd;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.util.ClassUtils;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of etcd environment service. Metrics are always collected by internal registry that is exposed
+ * via EtcdStat and additionally exported as Micrometer meters if Micrometer is on classpath.
+ * <p>
+ * Internal histograms have power of two buckets, so percentiles are approximate(upper bound of bucket).
+ * <p>
+ * Listener and conversion metrics are kept per property key only internally and for at most MAX_KEYED_METRICS keys,
+ * rest of keys share OTHER_KEY statistic. Micrometer meters aren't tagged by key, so number of exported time series
+ * doesn't grow with number of properties.
+ */
+@Log4j2
+final class EtcdMetrics {
+    static final String RPC = "etcd.rpc";
+    static final String WATCH_EVENTS = "etcd.watch.events";
+    static final String WATCH_LAG = "etcd.watch.lag";
+    static final String LISTENER = "etcd.listener";
+    static final String CONVERSION = "etcd.conversion";
+    static final String CONVERSION_FAILURES = "etcd.conversion.failures";
+    static final String LOCK_WAIT = "etcd.lock.wait";
+    static final String LOCK_HOLD = "etcd.lock.hold";
+    static final String RECONNECTS = "etcd.reconnects";
+    static final String DISPATCH_DROPPED = "etcd.dispatch.dropped";
+
+    private static final double NANOS_IN_MILLI = 1_000_000D;
+
+    // max number of property keys with own listener/conversion statistic
+    private static final int MAX_KEYED_METRICS = 1000;
+
+    // statistic name suffix of keys above MAX_KEYED_METRICS
+    private static final String OTHER_KEY = "<other>";
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    // property keys that have own statistic
+    private final Set<String> metricKeys = ConcurrentHashMap.newKeySet();
+
+    // null if Micrometer isn't on classpath
+    private final EtcdMicrometerMetrics micrometer;
+
+    EtcdMetrics() {
+        this.micrometer = ClassUtils.isPresent("io.micrometer.core.instrument.Metrics",
+                EtcdMetrics.class.getClassLoader()) ? new EtcdMicrometerMetrics() : null;
+        log.info("Etcd metrics initialized. Micrometer export: <{}>", micrometer != null);
+    }
+
+    /**
+     * Record latency of etcd rpc when future completes
+     *
+     * @param operation - get, put, txn, delete, lease, lock, unlock
+     */
+    <T> CompletableFuture<T> timeRpc(String operation, CompletableFuture<T> future) {
+        long start = System.nanoTime();
+        future.whenComplete((response, ex) -> {
+            long nanos = System.nanoTime() - start;
+            String outcome = ex == null ? "success" : "failure";
+            recordTime(RPC + "." + operation + "." + outcome, nanos);
+            if (micrometer != null) {
+                micrometer.recordTime(RPC, nanos, "operation", operation, "outcome", outcome);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @param lag - number of revisions local mirror was behind cluster when watch response arrived
+     */
+    void recordWatchResponse(int events, long lag) {
+        increment(WATCH_EVENTS, events);
+        histograms.computeIfAbsent(WATCH_LAG, name -> new Histogram(1)).record(lag);
+        if (micrometer != null) {
+            micrometer.increment(WATCH_EVENTS, events);
+            micrometer.recordAmount(WATCH_LAG, lag);
+        }
+    }
+
+    void recordListener(String key, long nanos) {
+        recordTime(LISTENER + "." + toMetricKey(key), nanos);
+        if (micrometer != null) {
+            micrometer.recordTime(LISTENER, nanos);
+        }
+    }
+
+    void recordConversion(String key, long nanos) {
+        recordTime(CONVERSION + "." + toMetricKey(key), nanos);
+        if (micrometer != null) {
+            micrometer.recordTime(CONVERSION, nanos);
+        }
+    }
+
+    void recordConversionFailure(String key) {
+        increment(CONVERSION_FAILURES + "." + toMetricKey(key), 1);
+        if (micrometer != null) {
+            micrometer.increment(CONVERSION_FAILURES, 1);
+        }
+    }
+
+    void recordLockWait(long nanos, boolean acquired) {
+        String outcome = acquired ? "acquired" : "failed";
+        recordTime(LOCK_WAIT + "." + outcome, nanos);
+        if (micrometer != null) {
+            micrometer.recordTime(LOCK_WAIT, nanos, "outcome", outcome);
+        }
+    }
+
+    void recordLockHold(long nanos) {
+        recordTime(LOCK_HOLD, nanos);
+        if (micrometer != null) {
+            micrometer.recordTime(LOCK_HOLD, nanos);
+        }
+    }
+
+    void recordReconnect() {
+        increment(RECONNECTS, 1);
+        if (micrometer != null) {
+            micrometer.increment(RECONNECTS, 1);
+        }
+    }
+
+    /**
+     * Update wasn't passed to listeners because dispatch queue was full
+     */
+    void recordDispatchDrop() {
+        increment(DISPATCH_DROPPED, 1);
+        if (micrometer != null) {
+            micrometer.increment(DISPATCH_DROPPED, 1);
+        }
+    }
+
+    Map<String, EtcdStat.EtcdMetricStat> getHistogramStat() {
+        Map<String, EtcdStat.EtcdMetricStat> result = new TreeMap<>();
+        histograms.forEach((name, histogram) -> result.put(name, histogram.getStat()));
+        return result;
+    }
+
+    Map<String, Long> getCounterStat() {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.sum()));
+        return result;
+    }
+
+    /**
+     * Key itself if it has or may get own statistic, OTHER_KEY otherwise. Limit check isn't atomic with insert, so
+     * concurrent callers may exceed it slightly
+     */
+    private String toMetricKey(String key) {
+        if (metricKeys.contains(key) || metricKeys.size() < MAX_KEYED_METRICS && metricKeys.add(key)) {
+            return key;
+        }
+        return OTHER_KEY;
+    }
+
+    private void recordTime(String name, long nanos) {
+        histograms.computeIfAbsent(name, n -> new Histogram(NANOS_IN_MILLI)).record(nanos);
+    }
+
+    private void increment(String name, long amount) {
+        counters.computeIfAbsent(name, n -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Lock free histogram. Bucket i holds values in range [2^(i-1), 2^i)
+     */
+    private static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder total = new LongAdder();
+
+        private final AtomicLong max = new AtomicLong();
+
+        // divisor to convert recorded values into reported unit
+        private final double scale;
+
+        private Histogram(double scale) {
+            this.scale = scale;
+        }
+
+        private void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+            count.increment();
+            total.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        private EtcdStat.EtcdMetricStat getStat() {
+            long count = this.count.sum();
+            long total = this.total.sum();
+            return new EtcdStat.EtcdMetricStat(count, total / scale, count == 0 ? 0 : total / scale / count,
+                    max.get() / scale, percentile(count, 0.5), percentile(count, 0.99));
+        }
+
+        private double percentile(long count, double percentile) {
+            long threshold = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= threshold && seen > 0) {
+                    long upperBound = i == 0 ? 0 : i >= Long.SIZE ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upperBound, max.get()) / scale;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.touchhome.common.env.etcd;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Export of etcd metrics into Micrometer global registry(spring boot actuator registries are added to it by
+ * default). Isolated in own class, so it's loaded only if Micrometer is on classpath.
+ * <p>
+ * Meters are registered once per name and tags and cached, so recording costs single map lookup. Callers must pass
+ * tags with bounded set of values: every meter publishes percentile histogram.
+ */
+final class EtcdMicrometerMetrics {
+    private final MeterRegistry registry = Metrics.globalRegistry;
+
+    private final ConcurrentMap<List<String>, Timer> timers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<List<String>, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<List<String>, Counter> counters = new ConcurrentHashMap<>();
+
+    void recordTime(String name, long nanos, String... tags) {
+        timers.computeIfAbsent(meterId(name, tags), id -> Timer.builder(name).tags(tags)
+                .publishPercentileHistogram().register(registry)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordAmount(String name, long amount, String... tags) {
+        summaries.computeIfAbsent(meterId(name, tags), id -> DistributionSummary.builder(name).tags(tags)
+                .publishPercentileHistogram().register(registry)).record(amount);
+    }
+
+    void increment(String name, long amount, String... tags) {
+        counters.computeIfAbsent(meterId(name, tags), id -> Counter.builder(name).tags(tags).register(registry))
+                .increment(amount);
+    }
+
+    private static List<String> meterId(String name, String... tags) {
+        if (tags.length == 0) {
+            return Arrays.asList(name);
+        }
+        List<String> id = new ArrayList<>(tags.length + 1);
+        id.add(name);
+        id.addAll(Arrays.asList(tags));
+        return id;
+    }
+}
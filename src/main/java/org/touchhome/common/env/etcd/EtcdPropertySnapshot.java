@@ -0,0 +1,253 @@
+package org.touchhome.common.env.etcd;
+
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.watch.WatchEvent;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Local copy of all keys under etcd store path. Filled by single range read at bootstrap and kept up to date by
+ * watch events. Keys are stored without store path prefix.
+ * <p>
+ * Snapshot may be bounded by maxSize. In this case entries are evicted by CLOCK(second chance) algorithm and snapshot
+ * is marked as incomplete, so absent keys must be read from etcd.
+ * <p>
+ * Reload and restore build new entries map and swap it in, so concurrent readers see either previous or new content
+ * and never partially filled map.
+ * <p>
+ * Writers(watch events, reload and values read directly from etcd) are serialized by snapshot lock, readers are lock
+ * free.
+ */
+final class EtcdPropertySnapshot {
+    private final String storePath;
+
+    // max number of entries, 0 - unbounded
+    private final int maxSize;
+
+    private volatile ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    // keys in insertion order for eviction. Uses only if maxSize set
+    private volatile Queue<String> clock = new ConcurrentLinkedQueue<>();
+
+    // last etcd revision reflected in snapshot
+    private volatile long revision;
+
+    // time of last load or applied watch response
+    private volatile long lastUpdateTime;
+
+    // false if any key was evicted, so absence of key in snapshot doesn't mean absence in etcd
+    private volatile boolean complete;
+
+    EtcdPropertySnapshot(String storePath, int maxSize) {
+        this.storePath = storePath;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Replace snapshot content with range read response.
+     *
+     * @param changedKeyConsumer - receives keys which value differs from previous snapshot content(deleted keys with
+     *                           null entry) or null if caller isn't interested in difference
+     */
+    void load(GetResponse response, BiConsumer<String, Entry> changedKeyConsumer) {
+        Map<String, Entry> previous = changedKeyConsumer == null ? null : new HashMap<>(entries);
+        // keeps order of response for eviction
+        Map<String, Entry> loaded = new LinkedHashMap<>();
+        for (KeyValue keyValue : response.getKvs()) {
+            String key = toRelativeKey(keyValue);
+            if (key != null) {
+                loaded.put(key, new Entry(keyValue));
+            }
+        }
+        replace(loaded, true, response.getHeader().getRevision());
+        touch();
+
+        if (changedKeyConsumer != null) {
+            entries.forEach((key, entry) -> {
+                Entry prev = previous.remove(key);
+                if (prev == null || !Arrays.equals(prev.value, entry.value)) {
+                    changedKeyConsumer.accept(key, entry);
+                }
+            });
+            previous.keySet().forEach(key -> changedKeyConsumer.accept(key, null));
+        }
+    }
+
+    /**
+     * Replace snapshot content with last known values persisted on disk. Snapshot keeps file write time, so
+     * staleness of values is reported honestly until etcd is reachable
+     */
+    void restore(EtcdSnapshotFile.Content content) {
+        replace(content.getEntries(), content.isComplete(), content.getRevision());
+        lastUpdateTime = content.getWriteTime();
+    }
+
+    /**
+     * Build new entries map and swap it with current one
+     *
+     * @param complete - false if values don't contain all keys of store path
+     */
+    private void replace(Map<String, Entry> values, boolean complete, long revision) {
+        ConcurrentNavigableMap<String, Entry> replacement = new ConcurrentSkipListMap<>(values);
+        Queue<String> replacementClock = new ConcurrentLinkedQueue<>();
+        if (maxSize > 0) {
+            replacementClock.addAll(values.keySet());
+            complete &= !evictIfRequired(replacement, replacementClock);
+        }
+        synchronized (this) {
+            // readers may see new map with previous flag, so flag is dropped first to never report absent key as
+            // missing
+            this.complete = false;
+            this.clock = replacementClock;
+            this.entries = replacement;
+            this.revision = revision;
+            this.complete = complete;
+        }
+    }
+
+    synchronized void apply(WatchEvent event) {
+        KeyValue keyValue = event.getKeyValue();
+        String key = toRelativeKey(keyValue);
+        if (key != null) {
+            if (event.getEventType() == WatchEvent.EventType.DELETE) {
+                entries.remove(key);
+            } else {
+                put(key, new Entry(keyValue));
+            }
+        }
+        if (keyValue.getModRevision() > revision) {
+            revision = keyValue.getModRevision();
+        }
+    }
+
+    /**
+     * Add value that was read directly from etcd because snapshot is incomplete. Doesn't override newer value
+     * received by watcher in between. Value is skipped if snapshot already reflects later revision than the read: key
+     * might be deleted after the read, and absent key must not be resurrected by stale value
+     *
+     * @param readRevision - etcd revision of read response header
+     */
+    synchronized void putIfAbsent(KeyValue keyValue, long readRevision) {
+        if (readRevision < revision) {
+            return;
+        }
+        String key = toRelativeKey(keyValue);
+        if (key != null && entries.putIfAbsent(key, new Entry(keyValue)) == null && maxSize > 0) {
+            clock.add(key);
+            evictIfRequired();
+        }
+    }
+
+    void touch() {
+        lastUpdateTime = System.currentTimeMillis();
+    }
+
+    Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry;
+    }
+
+    /**
+     * Return live view of entries which keys start with prefix
+     */
+    ConcurrentNavigableMap<String, Entry> getByPrefix(String prefix) {
+        return prefix.isEmpty() ? entries : entries.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    long getRevision() {
+        return revision;
+    }
+
+    long getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    private void put(String key, Entry entry) {
+        if (entries.put(key, entry) == null && maxSize > 0) {
+            clock.add(key);
+            evictIfRequired();
+        }
+    }
+
+    private void evictIfRequired() {
+        if (evictIfRequired(entries, clock)) {
+            complete = false;
+        }
+    }
+
+    /**
+     * @return true if any entry was evicted
+     */
+    private boolean evictIfRequired(Map<String, Entry> entries, Queue<String> clock) {
+        boolean evicted = false;
+        while (entries.size() > maxSize) {
+            String key = clock.poll();
+            if (key == null) {
+                return evicted;
+            }
+            Entry entry = entries.get(key);
+            if (entry != null && entry.referenced) {
+                // second chance for recently read entry
+                entry.referenced = false;
+                clock.add(key);
+            } else if (entry != null) {
+                entries.remove(key, entry);
+                evicted = true;
+            }
+        }
+        return evicted;
+    }
+
+    private String toRelativeKey(KeyValue keyValue) {
+        String key = keyValue.getKey().toString(UTF_8);
+        return key.startsWith(storePath) ? key.substring(storePath.length()) : null;
+    }
+
+    static final class Entry {
+        private final byte[] value;
+
+        private final long modRevision;
+
+        // set on read, cleared by eviction
+        private volatile boolean referenced;
+
+        private Entry(KeyValue keyValue) {
+            this(keyValue.getValue().getBytes(), keyValue.getModRevision());
+        }
+
+        Entry(byte[] value, long modRevision) {
+            this.value = value;
+            this.modRevision = modRevision;
+        }
+
+        byte[] getBytes() {
+            return value;
+        }
+
+        String getValue() {
+            return new String(value, UTF_8);
+        }
+
+        long getModRevision() {
+            return modRevision;
+        }
+    }
+}
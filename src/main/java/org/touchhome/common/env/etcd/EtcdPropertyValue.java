@@ -0,0 +1,26 @@
+package org.touchhome.common.env.etcd;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Etcd property value with consistency metadata
+ */
+@Getter
+@AllArgsConstructor
+public class EtcdPropertyValue {
+    private final String value;
+
+    // etcd revision of last key modification
+    private final long modRevision;
+
+    // revision of local store path mirror or etcd response revision for value that was read from etcd
+    private final long revision;
+
+    // milliseconds since local mirror was last confirmed by etcd watcher. 0 if value was read from etcd with
+    // linearizable read, -1 if it's unknown: serializable read may be served by lagging member
+    private final long staleness;
+
+    // true if value was read from etcd with linearizable read
+    private final boolean linearizable;
+}
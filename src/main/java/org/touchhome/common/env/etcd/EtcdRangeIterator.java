@@ -0,0 +1,99 @@
+package org.touchhome.common.env.etcd;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.options.GetOption;
+import lombok.SneakyThrows;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates etcd keys with prefix page by page, so only one page of pageSize keys is held in memory.
+ * All pages are read at revision of the first page, so iteration returns consistent view of range even if keys are
+ * modified meanwhile(as long as this revision isn't compacted).
+ */
+final class EtcdRangeIterator implements Iterator<KeyValue> {
+    private final KV kvClient;
+
+    private final ByteSequence endKey;
+
+    private final int pageSize;
+
+    private final boolean keysOnly;
+
+    private ByteSequence nextKey;
+
+    // revision of first page, 0 until first page is read
+    private long revision;
+
+    private boolean more = true;
+
+    private Iterator<KeyValue> page = Collections.emptyIterator();
+
+    EtcdRangeIterator(KV kvClient, ByteSequence prefix, int pageSize, boolean keysOnly) {
+        this.kvClient = kvClient;
+        this.nextKey = prefix;
+        this.endKey = prefixEnd(prefix);
+        this.pageSize = pageSize;
+        this.keysOnly = keysOnly;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && more) {
+            fetchPage();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public KeyValue next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    @SneakyThrows
+    private void fetchPage() {
+        GetOption.Builder option = GetOption.newBuilder().withRange(endKey).withLimit(pageSize)
+                .withSortField(GetOption.SortTarget.KEY).withSortOrder(GetOption.SortOrder.ASCEND)
+                .withKeysOnly(keysOnly);
+        if (revision > 0) {
+            option.withRevision(revision);
+        }
+        GetResponse response = kvClient.get(nextKey, option.build()).get();
+        if (revision == 0) {
+            revision = response.getHeader().getRevision();
+        }
+        List<KeyValue> keyValues = response.getKvs();
+        more = response.isMore() && !keyValues.isEmpty();
+        if (!keyValues.isEmpty()) {
+            // smallest key that is greater than last returned key
+            byte[] lastKey = keyValues.get(keyValues.size() - 1).getKey().getBytes();
+            nextKey = ByteSequence.from(Arrays.copyOf(lastKey, lastKey.length + 1));
+        }
+        page = keyValues.iterator();
+    }
+
+    /**
+     * Return smallest key that is greater than all keys with prefix
+     */
+    static ByteSequence prefixEnd(ByteSequence prefix) {
+        byte[] end = prefix.getBytes();
+        for (int i = end.length - 1; i >= 0; i--) {
+            if (end[i] != (byte) 0xff) {
+                end[i]++;
+                return ByteSequence.from(Arrays.copyOf(end, i + 1));
+            }
+        }
+        // no upper bound, read all keys from prefix
+        return ByteSequence.from(new byte[]{0});
+    }
+}
@@ -0,0 +1,139 @@
+package org.touchhome.common.env.etcd;
+
+import lombok.extern.log4j.Log4j2;
+import org.touchhome.common.util.CommonUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Last known values of store path persisted on local disk, so service may start without etcd and reconcile later.
+ * <p>
+ * Binary format: magic, revision, complete flag, write time, count and count of (key length, key, value length, value,
+ * mod revision) records. Complete flag is false if mirror was bounded and had evicted keys.
+ * File is written into temporary file and atomically moved over previous one, so reader never sees partial file.
+ * File is memory mapped on read.
+ */
+@Log4j2
+final class EtcdSnapshotFile {
+    private static final int MAGIC = 0x45544345;
+
+    private final Path path;
+
+    EtcdSnapshotFile(String storePath) {
+        this.path = CommonUtils.getRootPath().resolve("etcd")
+                .resolve(storePath.replaceAll("[^A-Za-z0-9._-]", "_") + ".snapshot");
+    }
+
+    boolean exists() {
+        return Files.isRegularFile(path);
+    }
+
+    void write(long revision, boolean complete, Map<String, EtcdPropertySnapshot.Entry> entries) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            // entries may be changed by watcher while writing, so count is written as it was at start
+            Map<String, EtcdPropertySnapshot.Entry> copy = new LinkedHashMap<>(entries);
+            out.writeInt(MAGIC);
+            out.writeLong(revision);
+            out.writeBoolean(complete);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(copy.size());
+            for (Map.Entry<String, EtcdPropertySnapshot.Entry> entry : copy.entrySet()) {
+                byte[] key = entry.getKey().getBytes(UTF_8);
+                byte[] value = entry.getValue().getBytes();
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(value.length);
+                out.write(value);
+                out.writeLong(entry.getValue().getModRevision());
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Etcd snapshot file <{}> written at revision <{}>", path, revision);
+    }
+
+    /**
+     * @return content of snapshot file or null if file is absent or corrupted
+     */
+    Content read() {
+        if (!exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                log.error("Etcd snapshot file <{}> has unknown format", path);
+                return null;
+            }
+            long revision = buffer.getLong();
+            boolean complete = buffer.get() != 0;
+            long writeTime = buffer.getLong();
+            int count = buffer.getInt();
+            Map<String, EtcdPropertySnapshot.Entry> entries = new LinkedHashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[buffer.getInt()];
+                buffer.get(key);
+                byte[] value = new byte[buffer.getInt()];
+                buffer.get(value);
+                entries.put(new String(key, UTF_8), new EtcdPropertySnapshot.Entry(value, buffer.getLong()));
+            }
+            return new Content(revision, complete, writeTime, entries);
+        } catch (IOException | BufferUnderflowException | NegativeArraySizeException ex) {
+            log.error("Etcd unable read snapshot file <{}>", path, ex);
+            return null;
+        }
+    }
+
+    static final class Content {
+        private final long revision;
+
+        private final boolean complete;
+
+        private final long writeTime;
+
+        private final Map<String, EtcdPropertySnapshot.Entry> entries;
+
+        private Content(long revision, boolean complete, long writeTime,
+                        Map<String, EtcdPropertySnapshot.Entry> entries) {
+            this.revision = revision;
+            this.complete = complete;
+            this.writeTime = writeTime;
+            this.entries = entries;
+        }
+
+        long getRevision() {
+            return revision;
+        }
+
+        boolean isComplete() {
+            return complete;
+        }
+
+        long getWriteTime() {
+            return writeTime;
+        }
+
+        Map<String, EtcdPropertySnapshot.Entry> getEntries() {
+            return entries;
+        }
+    }
+}
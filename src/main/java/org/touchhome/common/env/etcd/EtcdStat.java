@@ -23,6 +23,27 @@ public class EtcdStat
     // watch property updates by name history;
     private Map<String, List<EtcdPropertyUpdate>> watchHistory;
 
+    // last etcd revision received by watcher
+    private long watchRevision;
+
+    // shared keep-alive leases state. null if shared leases are disabled
+    private List<EtcdLeaseStat> leaseStat;
+
+    // number of intermediate revisions by key that were replaced within coalesce window and never reached listeners
+    private Map<String, Long> coalescedUpdates;
+
+    // listener dispatch stage state. null if listeners are executed on watch thread
+    private EtcdDispatchStat dispatchStat;
+
+    // health of etcd endpoints. Empty if health check is disabled
+    private List<EtcdEndpointStat> endpointStat;
+
+    // latency(ms) and amount histograms by metric name, i.e. etcd.rpc.get.success
+    private Map<String, EtcdMetricStat> metrics;
+
+    // counters by metric name, i.e. etcd.watch.events
+    private Map<String, Long> counters;
+
     @Getter
     @AllArgsConstructor
     @NoArgsConstructor
@@ -44,6 +65,102 @@ public class EtcdStat
     {
         private Object value;
 
-        private final Date timeStamp = new Date();
+        private long timeStamp;
+
+        // etcd revision of update, 0 if unknown
+        private long revision;
+
+        public Date getTimeStamp()
+        {
+            return new Date(timeStamp);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class EtcdLeaseStat
+    {
+        private long leaseId;
+
+        private boolean alive;
+
+        // ttl in seconds reported by last keep-alive response
+        private long ttl;
+
+        private long keepAlives;
+
+        private long failures;
+
+        // number of times lease was granted, more than 1 means lease was lost
+        private long grants;
+
+        private long lastKeepAliveTime;
+
+        private int ephemeralKeys;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class EtcdDispatchStat
+    {
+        private int threads;
+
+        private int queueCapacity;
+
+        private EtcdDispatchOverflowPolicy overflowPolicy;
+
+        // updates waiting in all partition queues now
+        private int queued;
+
+        // max observed queue size of single partition
+        private int maxQueued;
+
+        private long submitted;
+
+        private long executed;
+
+        // updates that were replaced by newer value of the same key before execution
+        private long coalesced;
+
+        // updates that were rejected because of full queue
+        private long dropped;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class EtcdEndpointStat
+    {
+        private String endpoint;
+
+        private boolean healthy;
+
+        // moving average of health probe latency in milliseconds
+        private double latency;
+
+        private long failures;
+
+        private long lastCheckTime;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class EtcdMetricStat
+    {
+        private long count;
+
+        private double total;
+
+        private double mean;
+
+        private double max;
+
+        // approximate percentiles
+        private double p50;
+
+        private double p99;
     }
 }
@@ -0,0 +1,73 @@
+package org.touchhome.common.env.etcd;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Debounce etcd updates per key. First update of key opens window, all updates of the same key within this window
+ * replace pending value and only the latest one is passed to sink when window is closed.
+ * Replaced(intermediate) revisions are counted per key for statistic.
+ */
+final class EtcdUpdateCoalescer {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "etcd-coalesce");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentMap<String, PendingUpdate> pending = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LongAdder> coalescedCount = new ConcurrentHashMap<>();
+
+    private final Sink sink;
+
+    EtcdUpdateCoalescer(Sink sink) {
+        this.sink = sink;
+    }
+
+    void submit(String key, String value, long revision, long window) {
+        if (pending.put(key, new PendingUpdate(value, revision)) == null) {
+            scheduler.schedule(() -> flush(key), window, TimeUnit.MILLISECONDS);
+        } else {
+            coalescedCount.computeIfAbsent(key, k -> new LongAdder()).increment();
+        }
+    }
+
+    private void flush(String key) {
+        PendingUpdate update = pending.remove(key);
+        if (update != null) {
+            sink.accept(key, update.value, update.revision);
+        }
+    }
+
+    /**
+     * Stop scheduler. Pending updates are discarded
+     */
+    void close() {
+        scheduler.shutdownNow();
+        pending.clear();
+    }
+
+    Map<String, Long> getCoalescedCount() {
+        Map<String, Long> result = new HashMap<>();
+        coalescedCount.forEach((key, count) -> result.put(key, count.sum()));
+        return result;
+    }
+
+    interface Sink {
+        void accept(String key, String value, long revision);
+    }
+
+    private static final class PendingUpdate {
+        private final String value;
+
+        private final long revision;
+
+        private PendingUpdate(String value, long revision) {
+            this.value = value;
+            this.revision = revision;
+        }
+    }
+}
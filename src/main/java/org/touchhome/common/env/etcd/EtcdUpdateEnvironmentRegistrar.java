@@ -26,7 +26,8 @@ class EtcdUpdateEnvironmentRegistrar implements ImportBeanDefinitionRegistrar, E
         {
             log.warn("Found disabled EtcdUpdateEnvironmentRepository");
         }
-        else if( !EtcdEnvironmentPropertyService.isEtcdAvailable(environment) )
+        else if( !EtcdEnvironmentPropertyService.isEtcdAvailable(environment, annotationReader.getValue("storePath"),
+                Boolean.parseBoolean(annotationReader.getValue("persistSnapshot"))) )
         {
             log.warn("Found EtcdUpdateEnvironmentRepository without etcd configuration");
         }
@@ -35,7 +36,20 @@ class EtcdUpdateEnvironmentRegistrar implements ImportBeanDefinitionRegistrar, E
             BeanDefinitionBuilder builder = BeanDefinitionBuilder
                     .rootBeanDefinition(EtcdEnvironmentPropertyService.class)
                     .addPropertyValue("loadValues", annotationReader.getValue("loadValues"))
-                    .addPropertyValue("storePath", annotationReader.getValue("storePath"));
+                    .addPropertyValue("storePath", annotationReader.getValue("storePath"))
+                    .addPropertyValue("bulkLoad", annotationReader.getValue("bulkLoad"))
+                    .addPropertyValue("readCache", annotationReader.getValue("readCache"))
+                    .addPropertyValue("readCacheMaxSize", annotationReader.getValue("readCacheMaxSize"))
+                    .addPropertyValue("sharedLeases", annotationReader.getValue("sharedLeases"))
+                    .addPropertyValue("sharedLeaseTTL", annotationReader.getValue("sharedLeaseTTL"))
+                    .addPropertyValue("lockSingleFlight", annotationReader.getValue("lockSingleFlight"))
+                    .addPropertyValue("dispatchThreads", annotationReader.getValue("dispatchThreads"))
+                    .addPropertyValue("dispatchQueueCapacity", annotationReader.getValue("dispatchQueueCapacity"))
+                    .addPropertyValue("dispatchOverflowPolicy", annotationReader.getValue("dispatchOverflowPolicy"))
+                    .addPropertyValue("dispatchVirtualThreads", annotationReader.getValue("dispatchVirtualThreads"))
+                    .addPropertyValue("healthCheckInterval", annotationReader.getValue("healthCheckInterval"))
+                    .addPropertyValue("serializableReads", annotationReader.getValue("serializableReads"))
+                    .addPropertyValue("persistSnapshot", annotationReader.getValue("persistSnapshot"));
             registry.registerBeanDefinition("etcdEnvironmentPropertyService", builder.getBeanDefinition());
         }
     }
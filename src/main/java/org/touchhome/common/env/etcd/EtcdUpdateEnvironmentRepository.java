@@ -18,4 +18,70 @@ public @interface EtcdUpdateEnvironmentRepository
     String storePath() default "${ETCD_STORE_PATH}";
 
     String loadValues() default "${ENABLE_LOAD_ENV_UPDATE_PROPERTIES:true}";
+
+    /**
+     * Read whole store path with single range request on startup instead of request per listener. Disabled by
+     * default: whole store path is loaded into memory
+     */
+    String bulkLoad() default "${ETCD_BULK_LOAD:false}";
+
+    /**
+     * Serve property reads from local watch-maintained mirror of store path. Disabled by default: cached reads are
+     * eventually consistent, whole store path is held in memory and the first read starts watcher
+     */
+    String readCache() default "${ETCD_READ_CACHE:false}";
+
+    /**
+     * Max number of keys in local mirror, 0 - unbounded
+     */
+    String readCacheMaxSize() default "${ETCD_READ_CACHE_MAX_SIZE:0}";
+
+    /**
+     * Number of long-lived keep-alive leases shared by ephemeral keys. 0 - ephemeral keys are disabled
+     */
+    String sharedLeases() default "${ETCD_SHARED_LEASES:0}";
+
+    /**
+     * Ttl in seconds of shared leases
+     */
+    String sharedLeaseTTL() default "${ETCD_SHARED_LEASE_TTL:10}";
+
+    /**
+     * Concurrent synchronizeWithLock calls of the same key in one application receive result of the first call
+     */
+    String lockSingleFlight() default "${ETCD_LOCK_SINGLE_FLIGHT:false}";
+
+    /**
+     * Number of threads that execute property listeners. 0 - listeners are executed on etcd watch thread
+     */
+    String dispatchThreads() default "${ETCD_DISPATCH_THREADS:0}";
+
+    String dispatchQueueCapacity() default "${ETCD_DISPATCH_QUEUE_CAPACITY:1024}";
+
+    /**
+     * One of EtcdDispatchOverflowPolicy values
+     */
+    String dispatchOverflowPolicy() default "${ETCD_DISPATCH_OVERFLOW_POLICY:COALESCE}";
+
+    /**
+     * Use virtual threads for dispatch workers if jvm supports them
+     */
+    String dispatchVirtualThreads() default "${ETCD_DISPATCH_VIRTUAL_THREADS:false}";
+
+    /**
+     * Time in milliseconds between health probes of every etcd endpoint. Probe round also rebuilds clients if
+     * auth or tls configuration was changed. 0 - disabled(default): every probe holds own client per endpoint, so
+     * probes must be enabled explicitly. Without probes clients aren't rebuilt on auth or tls change
+     */
+    String healthCheckInterval() default "${ETCD_HEALTH_CHECK_INTERVAL:0}";
+
+    /**
+     * Serve non-linearizable reads that miss local mirror by the lowest latency healthy member
+     */
+    String serializableReads() default "${ETCD_SERIALIZABLE_READS:false}";
+
+    /**
+     * Persist last known values of store path on local disk and start from them without waiting for etcd
+     */
+    String persistSnapshot() default "${ETCD_PERSIST_SNAPSHOT:false}";
 }
@@ -0,0 +1,85 @@
+package org.touchhome.common.env.etcd;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded history of property updates received by etcd watcher.
+ * Every key keeps fixed capacity ring buffer of primitive timestamps and revisions, number of keys is bounded and
+ * least recently updated key is evicted when limit is reached.
+ */
+final class EtcdWatchHistory {
+    private final int capacity;
+
+    // access ordered map evicts least recently updated key
+    private final LinkedHashMap<String, Ring> rings;
+
+    EtcdWatchHistory(int capacity, int maxKeys) {
+        this.capacity = capacity;
+        this.rings = new LinkedHashMap<String, Ring>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+                return size() > maxKeys;
+            }
+        };
+    }
+
+    synchronized void add(String key, Object value, long revision) {
+        Ring ring = rings.get(key);
+        if (ring == null) {
+            ring = new Ring(capacity);
+            rings.put(key, ring);
+        }
+        ring.add(value, revision, System.currentTimeMillis());
+    }
+
+    /**
+     * Return copy of history. Updates are ordered from oldest to newest
+     */
+    synchronized Map<String, List<EtcdStat.EtcdPropertyUpdate>> snapshot() {
+        Map<String, List<EtcdStat.EtcdPropertyUpdate>> result = new LinkedHashMap<>();
+        rings.forEach((key, ring) -> result.put(key, ring.toList()));
+        return result;
+    }
+
+    private static final class Ring {
+        private final Object[] values;
+
+        private final long[] revisions;
+
+        private final long[] timestamps;
+
+        // index of next write
+        private int next;
+
+        private int size;
+
+        private Ring(int capacity) {
+            this.values = new Object[capacity];
+            this.revisions = new long[capacity];
+            this.timestamps = new long[capacity];
+        }
+
+        private void add(Object value, long revision, long timestamp) {
+            values[next] = value;
+            revisions[next] = revision;
+            timestamps[next] = timestamp;
+            next = (next + 1) % values.length;
+            if (size < values.length) {
+                size++;
+            }
+        }
+
+        private List<EtcdStat.EtcdPropertyUpdate> toList() {
+            List<EtcdStat.EtcdPropertyUpdate> list = new ArrayList<>(size);
+            int start = (next - size + values.length) % values.length;
+            for (int i = 0; i < size; i++) {
+                int index = (start + i) % values.length;
+                list.add(new EtcdStat.EtcdPropertyUpdate(values[index], timestamps[index], revisions[index]));
+            }
+            return list;
+        }
+    }
+}
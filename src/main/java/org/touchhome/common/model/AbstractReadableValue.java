@@ -0,0 +1,158 @@
+package org.touchhome.common.model;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * Base class of values that may change at runtime and may be observed, but not necessarily updated directly.
+ * Keeps name, listeners and derived values that depend on this value.
+ * <p>
+ * Listeners are stored in copy-on-write lists and are never invoked concurrently: thread that publishes value while
+ * another thread notifies listeners hands notification over to it, so listeners may skip intermediate values but
+ * always end up with the latest one.
+ * <p>
+ * Dependent derived values are referenced weakly while they have no listeners, so derived value that is no longer
+ * used is collected and unregistered from this value.
+ *
+ * @param <L> listener type
+ */
+public abstract class AbstractReadableValue<L> {
+
+    private static final AtomicIntegerFieldUpdater<AbstractReadableValue> NOTIFY_WIP =
+            AtomicIntegerFieldUpdater.newUpdater(AbstractReadableValue.class, "notifyWip");
+
+    // when we create UpdatableValue which base on another UpdatableValue we must reflect base changes.
+    final List<L> reflectListeners = new CopyOnWriteArrayList<>();
+    // any class which uses this value may listen it's changes
+    private final List<L> updateListeners = new CopyOnWriteArrayList<>();
+    // derived values that are refreshed after all listeners of this value
+    private final List<DependentRef> dependents = new CopyOnWriteArrayList<>();
+    String name;
+    // number of threads that requested listeners notification. Only thread that moved it from 0 notifies listeners
+    private volatile int notifyWip;
+    // version that was passed to listeners last time, accessed only by notifying thread
+    private long notifiedVersion;
+
+    AbstractReadableValue(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void addListener(L listener) {
+        this.updateListeners.add(listener);
+    }
+
+    /**
+     * Register derived value that is refreshed on every change of this value. References to collected derived
+     * values are dropped on the way
+     */
+    void addDependent(DerivedValue<?> dependent) {
+        this.dependents.removeIf(ref -> ref.get() == null);
+        this.dependents.add(new DependentRef(dependent));
+    }
+
+    /**
+     * Keep derived value strongly referenced, so it isn't collected while its listeners wait for changes
+     */
+    void retainDependent(DerivedValue<?> dependent) {
+        for (DependentRef ref : dependents) {
+            if (ref.get() == dependent) {
+                ref.retained = dependent;
+            }
+        }
+    }
+
+    void removeDependent(DerivedValue<?> dependent) {
+        this.dependents.removeIf(ref -> ref.get() == null || ref.get() == dependent);
+    }
+
+    /**
+     * Version stamp of value. Incremented on every published change
+     */
+    public abstract long getVersion();
+
+    public int getUpdateCount() {
+        return (int) getVersion();
+    }
+
+    /**
+     * Boxed value for serialization
+     */
+    abstract Object getObjectValue();
+
+    /**
+     * Return function that passes current value to listener
+     */
+    abstract Consumer<L> currentValueInvoker();
+
+    final void notifyListeners() {
+        if (NOTIFY_WIP.getAndIncrement(this) != 0) {
+            // another thread notifies listeners now and picks up this change
+            return;
+        }
+        RuntimeException failure = null;
+        int missed = 1;
+        do {
+            long version = getVersion();
+            if (version != notifiedVersion) {
+                notifiedVersion = version;
+                Consumer<L> invoker = currentValueInvoker();
+                // invoke all listeners
+                failure = invokeListeners(updateListeners, invoker, failure);
+                // reflect Listeners must according to code order(i.e. setCorePoolSize must precede setMaxPoolSize)
+                failure = invokeListeners(reflectListeners, invoker, failure);
+                failure = invokeListeners(dependents, this::refreshDependent, failure);
+            }
+            missed = NOTIFY_WIP.addAndGet(this, -missed);
+        } while (missed != 0);
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void refreshDependent(DependentRef ref) {
+        DerivedValue<?> dependent = ref.get();
+        if (dependent == null) {
+            dependents.remove(ref);
+        } else {
+            dependent.refresh();
+        }
+    }
+
+    private static <E> RuntimeException invokeListeners(List<E> listeners, Consumer<E> invoker,
+                                                        RuntimeException failure) {
+        for (E listener : listeners) {
+            try {
+                invoker.accept(listener);
+            } catch (RuntimeException ex) {
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(getObjectValue());
+    }
+
+    private static final class DependentRef extends WeakReference<DerivedValue<?>> {
+        // set once derived value has listeners
+        private volatile DerivedValue<?> retained;
+
+        private DependentRef(DerivedValue<?> dependent) {
+            super(dependent);
+        }
+    }
+}
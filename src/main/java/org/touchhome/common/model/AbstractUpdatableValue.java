@@ -0,0 +1,74 @@
+package org.touchhome.common.model;
+
+/**
+ * Base class of values that may be changed at runtime by parsing string value. Adds @Min/@Max bounds and update
+ * contract to AbstractReadableValue.
+ *
+ * @param <L> listener type
+ */
+public abstract class AbstractUpdatableValue<L> extends AbstractReadableValue<L> {
+
+    // bounds from @Min/@Max annotations
+    long minValue = Long.MIN_VALUE;
+    long maxValue = Long.MAX_VALUE;
+
+    AbstractUpdatableValue(String name) {
+        super(name);
+    }
+
+    public long getMinValue() {
+        return minValue;
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    public abstract Object parseAndUpdate(String updatedValue);
+
+    /**
+     * Validate current value. Uses once value is created and bounds are assigned
+     */
+    abstract void validateValue();
+
+    /**
+     * Parse value without publishing it
+     */
+    abstract Object parseObject(String value);
+
+    abstract void validateObject(Object value);
+
+    /**
+     * Publish already validated value without notifying listeners. Uses by UpdatableValueGroup
+     *
+     * @return true if value was changed
+     */
+    abstract boolean publishQuietly(Object value);
+
+    final void validateBounds(long value) {
+        if (value < minValue) {
+            throw boundsViolation(value, "Min", minValue);
+        }
+        if (value > maxValue) {
+            throw boundsViolation(value, "Max", maxValue);
+        }
+    }
+
+    final void validateBounds(double value) {
+        if (Double.isNaN(value)) {
+            // NaN fails every comparison, so bound checks below would accept it
+            throw new IllegalArgumentException("Validation fails for value <NaN>. Value must be a number");
+        }
+        if (value < minValue) {
+            throw boundsViolation(value, "Min", minValue);
+        }
+        if (value > maxValue) {
+            throw boundsViolation(value, "Max", maxValue);
+        }
+    }
+
+    private static IllegalArgumentException boundsViolation(Object value, String annotation, long bound) {
+        return new IllegalArgumentException(String.format("Validation fails for value <%s>. %s value is <%d>",
+                value, annotation, bound));
+    }
+}
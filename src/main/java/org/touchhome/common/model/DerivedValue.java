@@ -0,0 +1,169 @@
+package org.touchhome.common.model;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Value that is computed from one or several updatable values. Computation runs lazily once per change of sources
+ * and result is cached with versions of sources it was computed from, so reads of unchanged value cost one volatile
+ * read per source and never repeat computation.
+ * <p>
+ * Computation result is accepted only if no source was changed while it ran, so value never mixes old and new
+ * source values. Listeners of derived value are notified after all listeners of changed source.
+ * <p>
+ * Derived value is read-only. Sources reference it weakly until first listener is added, so value that is no longer
+ * used(i.e. created by UpdatableValue.map() per call) is collected. Value with listeners stays registered in sources
+ * until close() is called.
+ */
+public final class DerivedValue<T> extends AbstractReadableValue<Consumer<T>> {
+
+    private static final AtomicReferenceFieldUpdater<DerivedValue, State> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(DerivedValue.class, State.class, "state");
+
+    private final Supplier<T> computation;
+    private final AbstractReadableValue<?>[] sources;
+    private volatile State<T> state;
+
+    private DerivedValue(String name, Supplier<T> computation, AbstractReadableValue<?>[] sources) {
+        super(name);
+        this.computation = computation;
+        this.sources = sources.clone();
+        this.state = new State<>(null, new long[0], 0);
+        State<T> initial = recompute();
+        this.state = new State<>(initial.value, initial.sourceVersions, 0);
+    }
+
+    /**
+     * Create value that is computed by computation from sources
+     *
+     * @param name        - value name
+     * @param computation - function that reads sources and computes value. Must be free of side effects
+     * @param sources     - values that computation depends on
+     */
+    public static <T> DerivedValue<T> of(String name, Supplier<T> computation, AbstractReadableValue<?>... sources) {
+        if (sources.length == 0) {
+            throw new IllegalArgumentException("Derived value <" + name + "> must have at least one source");
+        }
+        DerivedValue<T> derivedValue = new DerivedValue<>(name, computation, sources);
+        for (AbstractReadableValue<?> source : sources) {
+            source.addDependent(derivedValue);
+        }
+        return derivedValue;
+    }
+
+    public T getValue() {
+        State<T> current = state;
+        return isActual(current) ? current.value : recompute().value;
+    }
+
+    @Override
+    public long getVersion() {
+        State<T> current = state;
+        return isActual(current) ? current.version : recompute().version;
+    }
+
+    /**
+     * Listener keeps derived value registered in sources until close()
+     */
+    @Override
+    public void addListener(Consumer<T> listener) {
+        super.addListener(listener);
+        retain();
+    }
+
+    /**
+     * Unregister from sources. Value isn't refreshed on source changes anymore and listeners aren't notified
+     */
+    public void close() {
+        for (AbstractReadableValue<?> source : sources) {
+            source.removeDependent(this);
+        }
+    }
+
+    @Override
+    Consumer<Consumer<T>> currentValueInvoker() {
+        T value = getValue();
+        return listener -> listener.accept(value);
+    }
+
+    @Override
+    Object getObjectValue() {
+        return getValue();
+    }
+
+    /**
+     * Make sources reference this value strongly. Derived sources are retained as well, otherwise they would be
+     * collected with this value while only weakly reachable from their own sources
+     */
+    private void retain() {
+        for (AbstractReadableValue<?> source : sources) {
+            source.retainDependent(this);
+            if (source instanceof DerivedValue) {
+                ((DerivedValue<?>) source).retain();
+            }
+        }
+    }
+
+    void refresh() {
+        recompute();
+        notifyListeners();
+    }
+
+    private boolean isActual(State<T> current) {
+        long[] sourceVersions = current.sourceVersions;
+        if (sourceVersions.length != sources.length) {
+            return false;
+        }
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i].getVersion() != sourceVersions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private State<T> recompute() {
+        while (true) {
+            State<T> current = state;
+            long[] sourceVersions = readSourceVersions();
+            if (Arrays.equals(sourceVersions, current.sourceVersions)) {
+                return current;
+            }
+            T value = computation.get();
+            // source was changed while computation ran, value may be computed from old and new source values
+            if (!Arrays.equals(sourceVersions, readSourceVersions())) {
+                continue;
+            }
+            long version = Objects.equals(value, current.value) ? current.version : current.version + 1;
+            State<T> updated = new State<>(value, sourceVersions, version);
+            if (STATE.compareAndSet(this, current, updated)) {
+                return updated;
+            }
+        }
+    }
+
+    private long[] readSourceVersions() {
+        long[] sourceVersions = new long[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            sourceVersions[i] = sources[i].getVersion();
+        }
+        return sourceVersions;
+    }
+
+    private static final class State<T> {
+        private final T value;
+
+        private final long[] sourceVersions;
+
+        private final long version;
+
+        private State(T value, long[] sourceVersions, long version) {
+            this.value = value;
+            this.sourceVersions = sourceVersions;
+            this.version = version;
+        }
+    }
+}
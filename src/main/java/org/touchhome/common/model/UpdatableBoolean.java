@@ -0,0 +1,142 @@
+package org.touchhome.common.model;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * UpdatableValue that stores boolean value without boxing. getValue() is single volatile read without allocation.
+ * Listeners receive cached Boolean instances
+ */
+public final class UpdatableBoolean extends AbstractUpdatableValue<Consumer<Boolean>> {
+
+    private static final AtomicReferenceFieldUpdater<UpdatableBoolean, State> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(UpdatableBoolean.class, State.class, "state");
+
+    private volatile State state;
+
+    private UpdatableBoolean(boolean value, String name) {
+        super(name);
+        this.state = new State(value, 0);
+    }
+
+    public static UpdatableBoolean of(boolean value, String name) {
+        return new UpdatableBoolean(value, name);
+    }
+
+    /**
+     * Same rules as spring CustomBooleanEditor: true/on/yes/1 and false/off/no/0 ignoring case. Any other value is
+     * rejected instead of being read as false
+     */
+    public static boolean parseValue(String value) {
+        String text = value.trim();
+        if ("true".equalsIgnoreCase(text) || "on".equalsIgnoreCase(text) || "yes".equalsIgnoreCase(text)
+                || "1".equals(text)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(text) || "off".equalsIgnoreCase(text) || "no".equalsIgnoreCase(text)
+                || "0".equals(text)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid boolean value [" + value + "]");
+    }
+
+    public boolean getValue() {
+        return state.value;
+    }
+
+    @Override
+    public long getVersion() {
+        return state.version;
+    }
+
+    @Override
+    void validateValue() {
+    }
+
+    @Override
+    public Object parseAndUpdate(String updatedValue) {
+        return update(parseValue(updatedValue));
+    }
+
+    public boolean update(boolean updatedValue) {
+        while (true) {
+            State current = state;
+            if (publish(current, updatedValue)) {
+                return current.value;
+            }
+        }
+    }
+
+    /**
+     * Atomically set updatedValue if current value equals to expectedValue
+     *
+     * @return true if value equals to updatedValue after call
+     */
+    public boolean compareAndUpdate(boolean expectedValue, boolean updatedValue) {
+        while (true) {
+            State current = state;
+            if (current.value != expectedValue) {
+                return false;
+            }
+            if (publish(current, updatedValue)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    Object parseObject(String value) {
+        return parseValue(value);
+    }
+
+    @Override
+    void validateObject(Object value) {
+    }
+
+    @Override
+    boolean publishQuietly(Object value) {
+        boolean updatedValue = (Boolean) value;
+        while (true) {
+            State current = state;
+            if (current.value == updatedValue) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, new State(updatedValue, current.version + 1))) {
+                return true;
+            }
+        }
+    }
+
+    private boolean publish(State current, boolean updatedValue) {
+        if (current.value == updatedValue) {
+            return true;
+        }
+        if (!STATE.compareAndSet(this, current, new State(updatedValue, current.version + 1))) {
+            return false;
+        }
+        notifyListeners();
+        return true;
+    }
+
+    @Override
+    Consumer<Consumer<Boolean>> currentValueInvoker() {
+        Boolean value = state.value;
+        return listener -> listener.accept(value);
+    }
+
+    @Override
+    Object getObjectValue() {
+        return state.value;
+    }
+
+    private static final class State {
+        private final boolean value;
+
+        private final long version;
+
+        private State(boolean value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.touchhome.common.model;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * UpdatableValue that stores double value without boxing. getValue() is single volatile read without allocation and
+ * @Min/@Max bounds are checked as primitive comparisons
+ */
+public final class UpdatableDouble extends AbstractUpdatableValue<DoubleConsumer> {
+
+    private static final AtomicReferenceFieldUpdater<UpdatableDouble, State> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(UpdatableDouble.class, State.class, "state");
+
+    private volatile State state;
+
+    private UpdatableDouble(double value, String name) {
+        super(name);
+        this.state = new State(value, 0);
+    }
+
+    public static UpdatableDouble of(double value, String name) {
+        return new UpdatableDouble(value, name);
+    }
+
+    public static double parseValue(String value) {
+        return Double.parseDouble(value.trim());
+    }
+
+    public double getValue() {
+        return state.value;
+    }
+
+    @Override
+    public long getVersion() {
+        return state.version;
+    }
+
+    public void validate(double value) {
+        validateBounds(value);
+    }
+
+    @Override
+    void validateValue() {
+        validate(state.value);
+    }
+
+    @Override
+    public Object parseAndUpdate(String updatedValue) {
+        return update(parseValue(updatedValue));
+    }
+
+    public double update(double updatedValue) {
+        while (true) {
+            State current = state;
+            if (publish(current, updatedValue)) {
+                return current.value;
+            }
+        }
+    }
+
+    /**
+     * Atomically set updatedValue if current value equals to expectedValue
+     *
+     * @return true if value equals to updatedValue after call
+     */
+    public boolean compareAndUpdate(double expectedValue, double updatedValue) {
+        while (true) {
+            State current = state;
+            if (Double.compare(current.value, expectedValue) != 0) {
+                return false;
+            }
+            if (publish(current, updatedValue)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically update value with result of updateFunction. Function may be called several times under contention
+     * so it must be free of side effects
+     *
+     * @return updated value
+     */
+    public double updateAndGet(DoubleUnaryOperator updateFunction) {
+        while (true) {
+            State current = state;
+            double updatedValue = updateFunction.applyAsDouble(current.value);
+            if (publish(current, updatedValue)) {
+                return updatedValue;
+            }
+        }
+    }
+
+    @Override
+    Object parseObject(String value) {
+        return parseValue(value);
+    }
+
+    @Override
+    void validateObject(Object value) {
+        validate((Double) value);
+    }
+
+    @Override
+    boolean publishQuietly(Object value) {
+        double updatedValue = (Double) value;
+        while (true) {
+            State current = state;
+            if (Double.compare(current.value, updatedValue) == 0) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, new State(updatedValue, current.version + 1))) {
+                return true;
+            }
+        }
+    }
+
+    private boolean publish(State current, double updatedValue) {
+        if (Double.compare(current.value, updatedValue) == 0) {
+            return true;
+        }
+        validate(updatedValue);
+        if (!STATE.compareAndSet(this, current, new State(updatedValue, current.version + 1))) {
+            return false;
+        }
+        notifyListeners();
+        return true;
+    }
+
+    @Override
+    Consumer<DoubleConsumer> currentValueInvoker() {
+        double value = state.value;
+        return listener -> listener.accept(value);
+    }
+
+    @Override
+    Object getObjectValue() {
+        return state.value;
+    }
+
+    private static final class State {
+        private final double value;
+
+        private final long version;
+
+        private State(double value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.touchhome.common.model;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.util.ClassUtils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records resizes of updatable executors. Every resize is logged, counted and exported as Micrometer meters if
+ * Micrometer is on classpath
+ */
+@Log4j2
+final class UpdatableExecutorMetrics {
+    // null if Micrometer isn't on classpath
+    private static final UpdatableExecutorMicrometerMetrics micrometer =
+            ClassUtils.isPresent("io.micrometer.core.instrument.Metrics", UpdatableExecutorMetrics.class.getClassLoader())
+                    ? new UpdatableExecutorMicrometerMetrics() : null;
+
+    private final String executorName;
+
+    private final LongAdder resizeCount = new LongAdder();
+
+    UpdatableExecutorMetrics(String executorName) {
+        this.executorName = executorName;
+    }
+
+    void recordResize(String parameter, int previousValue, int value) {
+        if (previousValue == value) {
+            return;
+        }
+        resizeCount.increment();
+        log.info("Resize executor <{}> {}: <{}> -> <{}>", executorName, parameter, previousValue, value);
+        if (micrometer != null) {
+            micrometer.recordResize(executorName, parameter, previousValue, value);
+        }
+    }
+
+    long getResizeCount() {
+        return resizeCount.sum();
+    }
+}
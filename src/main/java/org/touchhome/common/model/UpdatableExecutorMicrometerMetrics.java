@@ -0,0 +1,29 @@
+package org.touchhome.common.model;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Export of executor resizes into Micrometer global registry. Isolated in own class, so it's loaded only if
+ * Micrometer is on classpath
+ */
+final class UpdatableExecutorMicrometerMetrics {
+    private final MeterRegistry registry = Metrics.globalRegistry;
+
+    // gauge values by executor and parameter
+    private final Map<String, AtomicInteger> sizes = new ConcurrentHashMap<>();
+
+    void recordResize(String executor, String parameter, int previousValue, int value) {
+        Counter.builder("touchhome.executor.resize")
+                .tags("executor", executor, "parameter", parameter, "direction", value > previousValue ? "grow" : "shrink")
+                .register(registry).increment();
+        sizes.computeIfAbsent(executor + "." + parameter, key -> registry.gauge("touchhome.executor.size",
+                Tags.of("executor", executor, "parameter", parameter), new AtomicInteger())).set(value);
+    }
+}
@@ -0,0 +1,154 @@
+package org.touchhome.common.model;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * UpdatableValue that stores int value without boxing. getValue() is single volatile read without allocation and
+ * @Min/@Max bounds are checked as primitive comparisons
+ */
+public final class UpdatableInt extends AbstractUpdatableValue<IntConsumer> {
+
+    private static final AtomicReferenceFieldUpdater<UpdatableInt, State> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(UpdatableInt.class, State.class, "state");
+
+    private volatile State state;
+
+    private UpdatableInt(int value, String name) {
+        super(name);
+        this.state = new State(value, 0);
+    }
+
+    public static UpdatableInt of(int value, String name) {
+        return new UpdatableInt(value, name);
+    }
+
+    public static int parseValue(String value) {
+        return Integer.parseInt(value.trim());
+    }
+
+    public int getValue() {
+        return state.value;
+    }
+
+    @Override
+    public long getVersion() {
+        return state.version;
+    }
+
+    public void validate(int value) {
+        validateBounds(value);
+    }
+
+    @Override
+    void validateValue() {
+        validate(state.value);
+    }
+
+    @Override
+    public Object parseAndUpdate(String updatedValue) {
+        return update(parseValue(updatedValue));
+    }
+
+    public int update(int updatedValue) {
+        while (true) {
+            State current = state;
+            if (publish(current, updatedValue)) {
+                return current.value;
+            }
+        }
+    }
+
+    /**
+     * Atomically set updatedValue if current value equals to expectedValue
+     *
+     * @return true if value equals to updatedValue after call
+     */
+    public boolean compareAndUpdate(int expectedValue, int updatedValue) {
+        while (true) {
+            State current = state;
+            if (current.value != expectedValue) {
+                return false;
+            }
+            if (publish(current, updatedValue)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically update value with result of updateFunction. Function may be called several times under contention
+     * so it must be free of side effects
+     *
+     * @return updated value
+     */
+    public int updateAndGet(IntUnaryOperator updateFunction) {
+        while (true) {
+            State current = state;
+            int updatedValue = updateFunction.applyAsInt(current.value);
+            if (publish(current, updatedValue)) {
+                return updatedValue;
+            }
+        }
+    }
+
+    @Override
+    Object parseObject(String value) {
+        return parseValue(value);
+    }
+
+    @Override
+    void validateObject(Object value) {
+        validate((Integer) value);
+    }
+
+    @Override
+    boolean publishQuietly(Object value) {
+        int updatedValue = (Integer) value;
+        while (true) {
+            State current = state;
+            if (current.value == updatedValue) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, new State(updatedValue, current.version + 1))) {
+                return true;
+            }
+        }
+    }
+
+    private boolean publish(State current, int updatedValue) {
+        if (current.value == updatedValue) {
+            return true;
+        }
+        validate(updatedValue);
+        if (!STATE.compareAndSet(this, current, new State(updatedValue, current.version + 1))) {
+            return false;
+        }
+        notifyListeners();
+        return true;
+    }
+
+    @Override
+    Consumer<IntConsumer> currentValueInvoker() {
+        int value = state.value;
+        return listener -> listener.accept(value);
+    }
+
+    @Override
+    Object getObjectValue() {
+        return state.value;
+    }
+
+    private static final class State {
+        private final int value;
+
+        private final long version;
+
+        private State(int value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.touchhome.common.model;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * UpdatableValue that stores long value without boxing. getValue() is single volatile read without allocation and
+ * @Min/@Max bounds are checked as primitive comparisons
+ */
+public final class UpdatableLong extends AbstractUpdatableValue<LongConsumer> {
+
+    private static final AtomicReferenceFieldUpdater<UpdatableLong, State> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(UpdatableLong.class, State.class, "state");
+
+    private volatile State state;
+
+    private UpdatableLong(long value, String name) {
+        super(name);
+        this.state = new State(value, 0);
+    }
+
+    public static UpdatableLong of(long value, String name) {
+        return new UpdatableLong(value, name);
+    }
+
+    public static long parseValue(String value) {
+        return Long.parseLong(value.trim());
+    }
+
+    public long getValue() {
+        return state.value;
+    }
+
+    @Override
+    public long getVersion() {
+        return state.version;
+    }
+
+    public void validate(long value) {
+        validateBounds(value);
+    }
+
+    @Override
+    void validateValue() {
+        validate(state.value);
+    }
+
+    @Override
+    public Object parseAndUpdate(String updatedValue) {
+        return update(parseValue(updatedValue));
+    }
+
+    public long update(long updatedValue) {
+        while (true) {
+            State current = state;
+            if (publish(current, updatedValue)) {
+                return current.value;
+            }
+        }
+    }
+
+    /**
+     * Atomically set updatedValue if current value equals to expectedValue
+     *
+     * @return true if value equals to updatedValue after call
+     */
+    public boolean compareAndUpdate(long expectedValue, long updatedValue) {
+        while (true) {
+            State current = state;
+            if (current.value != expectedValue) {
+                return false;
+            }
+            if (publish(current, updatedValue)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically update value with result of updateFunction. Function may be called several times under contention
+     * so it must be free of side effects
+     *
+     * @return updated value
+     */
+    public long updateAndGet(LongUnaryOperator updateFunction) {
+        while (true) {
+            State current = state;
+            long updatedValue = updateFunction.applyAsLong(current.value);
+            if (publish(current, updatedValue)) {
+                return updatedValue;
+            }
+        }
+    }
+
+    @Override
+    Object parseObject(String value) {
+        return parseValue(value);
+    }
+
+    @Override
+    void validateObject(Object value) {
+        validate((Long) value);
+    }
+
+    @Override
+    boolean publishQuietly(Object value) {
+        long updatedValue = (Long) value;
+        while (true) {
+            State current = state;
+            if (current.value == updatedValue) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, new State(updatedValue, current.version + 1))) {
+                return true;
+            }
+        }
+    }
+
+    private boolean publish(State current, long updatedValue) {
+        if (current.value == updatedValue) {
+            return true;
+        }
+        validate(updatedValue);
+        if (!STATE.compareAndSet(this, current, new State(updatedValue, current.version + 1))) {
+            return false;
+        }
+        notifyListeners();
+        return true;
+    }
+
+    @Override
+    Consumer<LongConsumer> currentValueInvoker() {
+        long value = state.value;
+        return listener -> listener.accept(value);
+    }
+
+    @Override
+    Object getObjectValue() {
+        return state.value;
+    }
+
+    private static final class State {
+        private final long value;
+
+        private final long version;
+
+        private State(long value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.touchhome.common.model;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ScheduledThreadPoolExecutor which core pool size is resized at runtime on UpdatableInt change.
+ * Every resize is reported as metric
+ */
+public class UpdatableScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor {
+
+    private final UpdatableExecutorMetrics metrics;
+
+    public UpdatableScheduledThreadPoolExecutor(String name, UpdatableInt corePoolSize, ThreadFactory threadFactory) {
+        super(corePoolSize.getValue(), threadFactory);
+        this.metrics = new UpdatableExecutorMetrics(name);
+        corePoolSize.addListener(this::resize);
+    }
+
+    public long getResizeCount() {
+        return metrics.getResizeCount();
+    }
+
+    private synchronized void resize(int corePoolSize) {
+        if (isShutdown()) {
+            return;
+        }
+        int previousCorePoolSize = getCorePoolSize();
+        setCorePoolSize(corePoolSize);
+        metrics.recordResize("core", previousCorePoolSize, corePoolSize);
+    }
+}
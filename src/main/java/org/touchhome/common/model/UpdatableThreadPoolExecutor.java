@@ -0,0 +1,282 @@
+package org.touchhome.common.model;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ThreadPoolExecutor which core pool size, max pool size and queue capacity are UpdatableInt values. Pool is
+ * reconfigured once per change, even if several values are changed together via getConfigGroup().
+ * <p>
+ * Optionally executor tunes itself: adds threads while tasks wait longer than target wait time and cpu isn't
+ * saturated, grows queue if tasks are rejected on saturated cpu and removes threads when pool is idle. Tuned sizes are
+ * kept apart from configured values and never leave their range: core pool size stays between @Min of core pool size
+ * and configured max pool size, queue capacity between configured capacity and its @Max. Any change of configured
+ * values resets tuned sizes to them. Every resize is reported as metric.
+ * <p>
+ * Tasks are passed to executor as is. Queue wait time is estimated by Little's law from queue length sampled when
+ * task starts and number of started tasks, so beforeExecute/afterExecute and rejection handler receive original tasks.
+ */
+@Log4j2
+public class UpdatableThreadPoolExecutor extends ThreadPoolExecutor {
+
+    // system load average per processor that is considered as saturated cpu
+    private static final double CPU_SATURATION_LOAD = 0.9;
+    // number of consecutive idle tune intervals before pool is shrunk
+    private static final int IDLE_INTERVALS_TO_SHRINK = 3;
+
+    private final String name;
+    private final UpdatableInt corePoolSize;
+    private final UpdatableInt maxPoolSize;
+    private final UpdatableInt queueCapacity;
+    private final UpdatableValueGroup configGroup;
+    private final ResizableBlockingQueue queue;
+    private final UpdatableExecutorMetrics metrics;
+
+    // statistic of current tune interval
+    private final LongAdder startedCount = new LongAdder();
+    private final LongAdder queuedSum = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    // handler set by user. Rejections pass through counting handler first
+    private volatile RejectedExecutionHandler rejectedExecutionHandler = new AbortPolicy();
+
+    // configured sizes, guarded by this
+    private List<Integer> poolConfig;
+    // sizes chosen by auto tune, guarded by this. Reset to configured sizes on configuration change
+    private int tunedCorePoolSize;
+    private int tunedQueueCapacity;
+
+    private ScheduledFuture<?> autoTuneTask;
+    private long tuneIntervalMillis;
+    private long targetWaitMillis;
+    // accessed only by tune task
+    private int idleIntervals;
+
+    public UpdatableThreadPoolExecutor(String name, UpdatableInt corePoolSize, UpdatableInt maxPoolSize,
+                                       UpdatableInt queueCapacity, long keepAliveTime, TimeUnit unit,
+                                       ThreadFactory threadFactory) {
+        super(corePoolSize.getValue(), Math.max(corePoolSize.getValue(), maxPoolSize.getValue()), keepAliveTime, unit,
+                new ResizableBlockingQueue(queueCapacity.getValue()), threadFactory);
+        this.name = name;
+        this.corePoolSize = corePoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.queueCapacity = queueCapacity;
+        this.queue = (ResizableBlockingQueue) getQueue();
+        this.metrics = new UpdatableExecutorMetrics(name);
+        super.setRejectedExecutionHandler((task, executor) -> {
+            rejectedCount.increment();
+            rejectedExecutionHandler.rejectedExecution(task, executor);
+        });
+
+        this.configGroup = new UpdatableValueGroup().add(corePoolSize).add(maxPoolSize).add(queueCapacity);
+        this.configGroup.addValidator(values -> {
+            if ((Integer) values.get(corePoolSize.getName()) > (Integer) values.get(maxPoolSize.getName())) {
+                throw new IllegalArgumentException("Core pool size of executor <" + name + "> must not exceed max pool size");
+            }
+        });
+        // derived value is refreshed once when several values are changed by group
+        DerivedValue<List<Integer>> poolConfig = DerivedValue.of(name, () -> configGroup.read(() -> Arrays.asList(
+                corePoolSize.getValue(), maxPoolSize.getValue(), queueCapacity.getValue())), corePoolSize, maxPoolSize,
+                queueCapacity);
+        configure(poolConfig.getValue());
+        poolConfig.addListener(this::configure);
+    }
+
+    /**
+     * Group of core pool size, max pool size and queue capacity to update them together
+     */
+    public UpdatableValueGroup getConfigGroup() {
+        return configGroup;
+    }
+
+    public long getResizeCount() {
+        return metrics.getResizeCount();
+    }
+
+    /**
+     * Start tuning pool size and queue capacity every interval
+     *
+     * @param intervalMillis   - tune interval in milliseconds
+     * @param targetWaitMillis - time in milliseconds that task may wait in queue before pool is grown
+     */
+    public synchronized void enableAutoTune(long intervalMillis, long targetWaitMillis) {
+        disableAutoTune();
+        this.tuneIntervalMillis = intervalMillis;
+        this.targetWaitMillis = targetWaitMillis;
+        this.autoTuneTask = TunerHolder.scheduler.scheduleWithFixedDelay(this::autoTune, intervalMillis,
+                intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop tuning. Pool keeps sizes chosen by auto tune until configuration is changed
+     */
+    public synchronized void disableAutoTune() {
+        if (autoTuneTask != null) {
+            autoTuneTask.cancel(false);
+            autoTuneTask = null;
+        }
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        this.rejectedExecutionHandler = Objects.requireNonNull(handler);
+    }
+
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        return rejectedExecutionHandler;
+    }
+
+    @Override
+    public void shutdown() {
+        disableAutoTune();
+        super.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        disableAutoTune();
+        return super.shutdownNow();
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        startedCount.increment();
+        queuedSum.add(queue.size());
+        super.beforeExecute(thread, task);
+    }
+
+    private synchronized void configure(List<Integer> poolConfig) {
+        this.poolConfig = poolConfig;
+        this.tunedCorePoolSize = poolConfig.get(0);
+        this.tunedQueueCapacity = poolConfig.get(2);
+        applyPoolConfig();
+    }
+
+    private synchronized void applyPoolConfig() {
+        if (isShutdown()) {
+            return;
+        }
+        int core = tunedCorePoolSize;
+        int max = Math.max(core, poolConfig.get(1));
+        int previousCore = getCorePoolSize();
+        int previousMax = getMaximumPoolSize();
+        // core pool size must never exceed max pool size, so order of setters depends on direction of resize
+        if (core > previousMax) {
+            setMaximumPoolSize(max);
+            setCorePoolSize(core);
+        } else {
+            setCorePoolSize(core);
+            setMaximumPoolSize(max);
+        }
+        metrics.recordResize("core", previousCore, core);
+        metrics.recordResize("max", previousMax, max);
+
+        int previousCapacity = queue.capacity;
+        queue.capacity = tunedQueueCapacity;
+        metrics.recordResize("queue", previousCapacity, queue.capacity);
+    }
+
+    private void autoTune() {
+        try {
+            long started = startedCount.sumThenReset();
+            long queuedTotal = queuedSum.sumThenReset();
+            long rejected = rejectedCount.sumThenReset();
+            int queued = queue.size();
+            // Little's law: wait = average queue length / throughput. Nothing started while tasks are queued means
+            // that they waited whole interval at least
+            double averageWaitMillis = started == 0 ? (queued > 0 ? tuneIntervalMillis : 0)
+                    : (double) queuedTotal / started * tuneIntervalMillis / started;
+            double cpuLoad = getCpuLoad();
+            boolean cpuSaturated = cpuLoad >= CPU_SATURATION_LOAD;
+            tune(averageWaitMillis, queued, rejected, cpuLoad, cpuSaturated);
+        } catch (Exception ex) {
+            log.error("Unable to auto tune executor <{}>", name, ex);
+        }
+    }
+
+    private synchronized void tune(double averageWaitMillis, int queued, long rejected, double cpuLoad,
+                                   boolean cpuSaturated) {
+        int core = tunedCorePoolSize;
+        int capacity = tunedQueueCapacity;
+        int minCore = (int) Math.max(1, Math.min(corePoolSize.getMinValue(), Integer.MAX_VALUE));
+        int maxCore = Math.max(minCore, poolConfig.get(1));
+        if ((averageWaitMillis > targetWaitMillis || rejected > 0) && queued > 0 && !cpuSaturated) {
+            // tasks wait for free thread and cpu has headroom
+            idleIntervals = 0;
+            tunedCorePoolSize = clamp(core + Math.max(1, core / 4), minCore, maxCore);
+        } else if (rejected > 0 && cpuSaturated) {
+            // more threads wouldn't help on busy cpu, buffer tasks instead of rejecting them
+            idleIntervals = 0;
+            tunedQueueCapacity = clamp(Math.max(1, capacity * 2L), poolConfig.get(2),
+                    Math.max(poolConfig.get(2), Math.min(queueCapacity.getMaxValue(), Integer.MAX_VALUE)));
+        } else if (queued == 0 && getActiveCount() < core / 2) {
+            if (++idleIntervals >= IDLE_INTERVALS_TO_SHRINK) {
+                idleIntervals = 0;
+                tunedCorePoolSize = clamp(core - 1L, minCore, maxCore);
+            }
+        } else {
+            idleIntervals = 0;
+        }
+
+        if (tunedCorePoolSize != core || tunedQueueCapacity != capacity) {
+            log.info("Auto tune executor <{}>: core <{}> -> <{}>, queue <{}> -> <{}>. Average wait: <{}ms>, "
+                            + "queued: <{}>, rejected: <{}>, cpu load: <{}>", name, core, tunedCorePoolSize, capacity,
+                    tunedQueueCapacity, averageWaitMillis, queued, rejected, cpuLoad);
+            applyPoolConfig();
+        }
+    }
+
+    private static int clamp(long value, long min, long max) {
+        return (int) Math.max(min, Math.min(value, max));
+    }
+
+    // system load average per processor or -1 if not available
+    private static double getCpuLoad() {
+        double loadAverage = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        return loadAverage < 0 ? -1 : loadAverage / Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Unbounded LinkedBlockingQueue which offer() is limited by capacity that may be changed at runtime. Executor
+     * uses offer() only. Capacity check isn't atomic with insert, so concurrent producers may exceed it slightly
+     */
+    private static final class ResizableBlockingQueue extends LinkedBlockingQueue<Runnable> {
+        private volatile int capacity;
+
+        private ResizableBlockingQueue(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public boolean offer(Runnable task) {
+            return size() < capacity && super.offer(task);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Math.max(0, capacity - size());
+        }
+    }
+
+    private static final class TunerHolder {
+        private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "updatable-executor-tuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -14,33 +14,33 @@ import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.function.UnaryOperator;
 
 /**
- * Represent object with ability to change it's value and notify observable classes
+ * Represent object with ability to change it's value and notify observable classes.
+ * <p>
+ * Value and it's version are published together by single volatile reference, so getValue() costs one volatile
+ * read and updates are lock-free CAS. See UpdatableInt, UpdatableLong, UpdatableDouble and UpdatableBoolean for
+ * values that are stored without boxing.
  */
-public class UpdatableValue<T> {
-
-    protected T value;
-    // when we create UpdatableValue which base on another UpdatableValue we must reflect base changes.
-    List<Consumer<T>> reflectListeners = new ArrayList<>();
-    // any class which uses this UpdatableValue may listen it's changes
-    private List<Consumer<T>> updateListeners = new ArrayList<>();
-    private String name;
+public class UpdatableValue<T> extends AbstractUpdatableValue<Consumer<T>> {
+
+    private static final AtomicReferenceFieldUpdater<UpdatableValue, State> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(UpdatableValue.class, State.class, "state");
+
+    private volatile State<T> state = new State<>(null, 0, null);
     private Function<String, T> stringConverter;
     private Function<T, T> extraFunc;
-    private Set<Validator> validators = new HashSet<>();
-    private int updateCount;
 
     private UpdatableValue() {
+        super(null);
     }
 
     public static <T> UpdatableValue<T> wrap(T value, String name) {
@@ -48,7 +48,7 @@ public class UpdatableValue<T> {
             throw new IllegalArgumentException("Unable to evaluate type for null value");
         }
         UpdatableValue<T> updatableValue = new UpdatableValue<>();
-        updatableValue.value = value;
+        updatableValue.state = updatableValue.newState(value, 0);
         updatableValue.name = name;
         updatableValue.stringConverter = findStringConverter(value.getClass());
         return updatableValue;
@@ -56,7 +56,7 @@ public class UpdatableValue<T> {
 
     public static <T> UpdatableValue<T> ofNullable(@Nullable T value, String name, Class<?> valueType) {
         UpdatableValue<T> updatableValue = new UpdatableValue<>();
-        updatableValue.value = value;
+        updatableValue.state = updatableValue.newState(value, 0);
         updatableValue.name = name;
         updatableValue.stringConverter = findStringConverter(valueType);
         return updatableValue;
@@ -88,75 +88,181 @@ public class UpdatableValue<T> {
     }
 
     public T getValue() {
-        return extraFunc == null ? value : extraFunc.apply(value);
+        return state.extraValue;
+    }
+
+    /**
+     * Value without extra function applied
+     */
+    public T getRawValue() {
+        return state.value;
+    }
+
+    // extra function is applied once per published value, so reads never repeat it
+    private State<T> newState(T value, long version) {
+        return new State<>(value, version, extraFunc == null ? value : extraFunc.apply(value));
     }
 
     public void validate(T value) {
-        for (Validator validator : validators) {
-            validator.validate(value);
+        if (value instanceof Number) {
+            validateBounds(((Number) value).longValue());
         }
     }
 
+    @Override
+    void validateValue() {
+        validate(state.value);
+    }
+
     public T parse(String value) {
         return stringConverter.apply(value);
     }
 
+    @Override
     public Object parseAndUpdate(String updatedValue) {
         return update(stringConverter.apply(updatedValue));
     }
 
-    public int getUpdateCount() {
-        return updateCount;
+    @Override
+    public long getVersion() {
+        return state.version;
     }
 
     public T update(T updatedValue) {
-        T prevValue = this.value;
-        if (!this.value.equals(updatedValue)) {
-            validate(updatedValue);
-            this.value = updatedValue;
-            this.updateCount++;
+        while (true) {
+            State<T> current = state;
+            if (publish(current, updatedValue)) {
+                return current.value;
+            }
+        }
+    }
 
-            // invoke all listeners
-            updateListeners.forEach(consumer -> consumer.accept(getValue()));
-            // reflect Listeners must according to code order(i.e. setCorePoolSize must precede setMaxPoolSize)
-            reflectListeners.forEach(consumer -> consumer.accept(getValue()));
+    /**
+     * Atomically set updatedValue if current value equals to expectedValue
+     *
+     * @return true if value equals to updatedValue after call
+     */
+    public boolean compareAndUpdate(T expectedValue, T updatedValue) {
+        while (true) {
+            State<T> current = state;
+            if (!Objects.equals(current.value, expectedValue)) {
+                return false;
+            }
+            if (publish(current, updatedValue)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Atomically update value with result of updateFunction. Function may be called several times under contention
+     * so it must be free of side effects
+     *
+     * @return updated value
+     */
+    public T updateAndGet(UnaryOperator<T> updateFunction) {
+        while (true) {
+            State<T> current = state;
+            T updatedValue = updateFunction.apply(current.value);
+            if (publish(current, updatedValue)) {
+                return updatedValue;
+            }
         }
-        return prevValue;
     }
 
     @Override
-    public String toString() {
-        return String.valueOf(value);
+    Object parseObject(String value) {
+        return stringConverter.apply(value);
     }
 
-    public void addListener(Consumer<T> listener) {
-        this.updateListeners.add(listener);
+    @Override
+    void validateObject(Object value) {
+        validate((T) value);
     }
 
-    public String getName() {
-        return name;
+    @Override
+    boolean publishQuietly(Object value) {
+        T updatedValue = (T) value;
+        while (true) {
+            State<T> current = state;
+            if (Objects.equals(current.value, updatedValue)) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, newState(updatedValue, current.version + 1))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Replace current state with updatedValue and notify listeners
+     *
+     * @return false if state was changed by another thread meanwhile
+     */
+    private boolean publish(State<T> current, T updatedValue) {
+        if (Objects.equals(current.value, updatedValue)) {
+            return true;
+        }
+        validate(updatedValue);
+        if (!STATE.compareAndSet(this, current, newState(updatedValue, current.version + 1))) {
+            return false;
+        }
+        notifyListeners();
+        return true;
+    }
+
+    @Override
+    Consumer<Consumer<T>> currentValueInvoker() {
+        T value = getValue();
+        return listener -> listener.accept(value);
+    }
+
+    @Override
+    Object getObjectValue() {
+        return state.value;
     }
 
     public UpdatableValue<T> andExtra(Function<T, T> extraFunc) {
-        UpdatableValue<T> updatableValueWithExtra = UpdatableValue.wrap(this.value, this.name);
+        UpdatableValue<T> updatableValueWithExtra = UpdatableValue.wrap(getRawValue(), this.name);
         updatableValueWithExtra.extraFunc = extraFunc;
+        updatableValueWithExtra.state = updatableValueWithExtra.newState(getRawValue(), 0);
         updatableValueWithExtra.stringConverter = this.stringConverter;
         this.reflectListeners.add(updatableValueWithExtra::update);
         return updatableValueWithExtra;
     }
 
-    private interface Validator {
-        void validate(Object value);
+    /**
+     * Create value that is computed from this value once per change and cached.
+     * I.e. for parsing csv value into Set or compiling regex. Result should be kept and reused instead of mapping on
+     * every read. Value without listeners is unregistered when collected, value with listeners - by close()
+     */
+    public <R> DerivedValue<R> map(Function<T, R> mapper) {
+        return DerivedValue.of(name, () -> mapper.apply(getValue()), this);
+    }
+
+    private static final class State<T> {
+        private final T value;
+
+        private final long version;
+
+        // value with extra function applied
+        private final T extraValue;
+
+        private State(T value, long version, T extraValue) {
+            this.value = value;
+            this.version = version;
+            this.extraValue = extraValue;
+        }
     }
 
     /**
      * Uses to ObjectMapper conversion
      */
-    public static final class UpdatableValueSerializer extends JsonSerializer<UpdatableValue> {
+    public static final class UpdatableValueSerializer extends JsonSerializer<AbstractUpdatableValue> {
 
         @Override
-        public void serialize(UpdatableValue updatableValue, JsonGenerator gen, SerializerProvider provider) throws IOException {
-            gen.writeObject(updatableValue.value);
+        public void serialize(AbstractUpdatableValue updatableValue, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeObject(updatableValue.getObjectValue());
         }
     }
 
@@ -169,45 +275,53 @@ public class UpdatableValue<T> {
         public Set<ConvertiblePair> getConvertibleTypes() {
             Set<ConvertiblePair> convertiblePairs = new HashSet<>();
             convertiblePairs.add(new ConvertiblePair(String.class, UpdatableValue.class));
+            convertiblePairs.add(new ConvertiblePair(String.class, UpdatableInt.class));
+            convertiblePairs.add(new ConvertiblePair(String.class, UpdatableLong.class));
+            convertiblePairs.add(new ConvertiblePair(String.class, UpdatableDouble.class));
+            convertiblePairs.add(new ConvertiblePair(String.class, UpdatableBoolean.class));
 
             return convertiblePairs;
         }
 
         @Override
         public boolean matches(TypeDescriptor sourceType, TypeDescriptor targetType) {
-            return UpdatableValue.class.isAssignableFrom(targetType.getType());
+            return AbstractUpdatableValue.class.isAssignableFrom(targetType.getType());
         }
 
         @Override
         public Object convert(Object source, TypeDescriptor sourceType, TypeDescriptor targetType) {
             try {
-                Class<?> genericClass = (Class<?>) targetType.getResolvableType().getGeneric(0).getType();
-                if (!UpdatableValue.class.isAssignableFrom(targetType.getType())) {
+                Class<?> targetClass = targetType.getType();
+                if (!AbstractUpdatableValue.class.isAssignableFrom(targetClass)) {
                     throw new RuntimeException("Failed cast targetType <" + targetType.getType() + "> to UpdatableValue in " + targetType.getSource());
                 }
-                if (genericClass == null) {
-                    throw new RuntimeException("UpdatableValue has no generic type specified in " + targetType.getSource());
-                }
-                UpdatableValue updatableValue = new UpdatableValue();
-                updatableValue.name = getNameFromAnnotation(/*targetType.getAnnotation(Column.class),*/
+                String name = getNameFromAnnotation(/*targetType.getAnnotation(Column.class),*/
                         targetType.getAnnotation(Value.class), () -> {
                             // must never through as UpdatableValueConverter uses by spring only with @Value annotation
                             throw new RuntimeException("Can not fetch UpdatableValue name from " + targetType.getSource());
                         });
-                updatableValue.stringConverter = findStringConverter(genericClass);
-
-                updatableValue.validators = collectValidators(targetType, a -> {
-                    if (a.annotationType().isAssignableFrom(Min.class)) {
-                        return ((Min) a).value();
-                    }
-                    if (a.annotationType().isAssignableFrom(Max.class)) {
-                        return ((Max) a).value();
+                String value = source.toString();
+
+                AbstractUpdatableValue<?> updatableValue;
+                if (targetClass == UpdatableInt.class) {
+                    updatableValue = UpdatableInt.of(UpdatableInt.parseValue(value), name);
+                } else if (targetClass == UpdatableLong.class) {
+                    updatableValue = UpdatableLong.of(UpdatableLong.parseValue(value), name);
+                } else if (targetClass == UpdatableDouble.class) {
+                    updatableValue = UpdatableDouble.of(UpdatableDouble.parseValue(value), name);
+                } else if (targetClass == UpdatableBoolean.class) {
+                    updatableValue = UpdatableBoolean.of(UpdatableBoolean.parseValue(value), name);
+                } else {
+                    updatableValue = createUpdatableValue(targetType, name, value);
+                }
+                for (Annotation annotation : targetType.getAnnotations()) {
+                    if (annotation instanceof Min) {
+                        updatableValue.minValue = ((Min) annotation).value();
+                    } else if (annotation instanceof Max) {
+                        updatableValue.maxValue = ((Max) annotation).value();
                     }
-                    return null;
-                });
-
-                updatableValue.value = updatableValue.stringConverter.apply(source.toString());
-                updatableValue.validate(updatableValue.value);
+                }
+                updatableValue.validateValue();
 
                 return updatableValue;
             } catch (Exception ex) {
@@ -215,18 +329,16 @@ public class UpdatableValue<T> {
             }
         }
 
-        private Set<Validator> collectValidators(TypeDescriptor targetType, Function<Annotation, Long> exceedConverter) {
-            return Stream.of(targetType.getAnnotations())
-                    .filter(a -> exceedConverter.apply(a) != null) // ensures that only known annotations uses
-                    .map(a -> (Validator) value -> {
-                        Long exceedValue = exceedConverter.apply(a);
-                        Long actualValue = ((Number) value).longValue();
-                        if ((actualValue < exceedValue && a.annotationType().isAssignableFrom(Min.class)) ||
-                                (actualValue > exceedValue && a.annotationType().isAssignableFrom(Max.class))) {
-                            throw new IllegalArgumentException(String.format("Validation fails for value <%s>. %s value is <%d>", value, a.annotationType().getSimpleName(), exceedValue));
-                        }
-                    })
-                    .collect(Collectors.toSet());
+        private UpdatableValue<Object> createUpdatableValue(TypeDescriptor targetType, String name, String value) {
+            Class<?> genericClass = (Class<?>) targetType.getResolvableType().getGeneric(0).getType();
+            if (genericClass == null) {
+                throw new RuntimeException("UpdatableValue has no generic type specified in " + targetType.getSource());
+            }
+            UpdatableValue<Object> updatableValue = new UpdatableValue<>();
+            updatableValue.name = name;
+            updatableValue.stringConverter = findStringConverter(genericClass);
+            updatableValue.state = updatableValue.newState(updatableValue.stringConverter.apply(value), 0);
+            return updatableValue;
         }
     }
 }
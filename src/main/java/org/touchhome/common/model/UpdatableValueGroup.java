@@ -0,0 +1,164 @@
+package org.touchhome.common.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Group of updatable values that are updated together. All new values are parsed and validated before any of them
+ * is published, then all values are published, listeners of every changed value are notified in order values were
+ * added to group and group listeners are notified once with all changes.
+ * I.e. related thread pool parameters that come in one batch cause single pool reconfiguration.
+ * <p>
+ * Values are published one by one, so separate getValue() calls of several members may observe part of group update.
+ * Readers that need consistent view of group read values inside read(), which is repeated if group update published
+ * values meanwhile. Update and reflect listeners still fire per changed value, but only after all values are
+ * published, so they never see part of group update.
+ * <p>
+ * Group updates are serialized, but values still may be updated one by one outside of group. Such updates aren't
+ * covered by group version.
+ */
+public final class UpdatableValueGroup {
+
+    private final Map<String, AbstractUpdatableValue<?>> values = new LinkedHashMap<>();
+    private final List<Consumer<Map<String, Object>>> validators = new CopyOnWriteArrayList<>();
+    private final List<Consumer<Map<String, Object>>> listeners = new CopyOnWriteArrayList<>();
+    // odd while group update publishes values. Changed only under group lock
+    private volatile long version;
+
+    public synchronized UpdatableValueGroup add(AbstractUpdatableValue<?> value) {
+        if (value.getName() == null) {
+            throw new IllegalArgumentException("Unable to add value without name to group");
+        }
+        if (values.putIfAbsent(value.getName(), value) != null) {
+            throw new IllegalArgumentException("Value <" + value.getName() + "> already exists in group");
+        }
+        return this;
+    }
+
+    public synchronized AbstractUpdatableValue<?> get(String name) {
+        return values.get(name);
+    }
+
+    /**
+     * Version stamp of group. Incremented twice by every valid group update: before and after values are published
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Run reader until it completes while no group update publishes values, so reader sees values of group members
+     * either before or after every group update. Reader may be called several times and must be free of side effects
+     */
+    public <R> R read(Supplier<R> reader) {
+        while (true) {
+            long stamp = version;
+            if ((stamp & 1) == 0) {
+                R result = reader.get();
+                if (version == stamp) {
+                    return result;
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Add validator of whole group. Validator receives values of all group members as they would be after update
+     * and throws exception to reject update. I.e. check that core pool size not exceeds max pool size
+     */
+    public void addValidator(Consumer<Map<String, Object>> validator) {
+        this.validators.add(validator);
+    }
+
+    /**
+     * Add listener that receives changed values once per group update
+     */
+    public void addListener(Consumer<Map<String, Object>> listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Parse, validate and publish updatedValues
+     *
+     * @param updatedValues - value name to string representation of new value
+     * @return changed values by name
+     */
+    public synchronized Map<String, Object> update(Map<String, String> updatedValues) {
+        Map<AbstractUpdatableValue<?>, Object> parsedValues = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : updatedValues.entrySet()) {
+            AbstractUpdatableValue<?> value = values.get(entry.getKey());
+            if (value == null) {
+                throw new IllegalArgumentException("Value <" + entry.getKey() + "> not found in group");
+            }
+            Object parsedValue = value.parseObject(entry.getValue());
+            value.validateObject(parsedValue);
+            parsedValues.put(value, parsedValue);
+        }
+        if (!validators.isEmpty()) {
+            Map<String, Object> groupValues = new LinkedHashMap<>();
+            for (AbstractUpdatableValue<?> value : values.values()) {
+                groupValues.put(value.getName(),
+                        parsedValues.containsKey(value) ? parsedValues.get(value) : value.getObjectValue());
+            }
+            Map<String, Object> readOnlyGroupValues = Collections.unmodifiableMap(groupValues);
+            for (Consumer<Map<String, Object>> validator : validators) {
+                validator.accept(readOnlyGroupValues);
+            }
+        }
+
+        // publish all values before any listener is called, so listeners see whole change set
+        List<AbstractUpdatableValue<?>> changedValues = new ArrayList<>();
+        Map<String, Object> changes = new LinkedHashMap<>();
+        version++;
+        try {
+            for (AbstractUpdatableValue<?> value : values.values()) {
+                if (parsedValues.containsKey(value) && value.publishQuietly(parsedValues.get(value))) {
+                    changedValues.add(value);
+                    changes.put(value.getName(), parsedValues.get(value));
+                }
+            }
+        } finally {
+            version++;
+        }
+        if (changes.isEmpty()) {
+            return changes;
+        }
+
+        RuntimeException failure = null;
+        for (AbstractUpdatableValue<?> value : changedValues) {
+            try {
+                value.notifyListeners();
+            } catch (RuntimeException ex) {
+                failure = addFailure(failure, ex);
+            }
+        }
+        Map<String, Object> readOnlyChanges = Collections.unmodifiableMap(changes);
+        for (Consumer<Map<String, Object>> listener : listeners) {
+            try {
+                listener.accept(readOnlyChanges);
+            } catch (RuntimeException ex) {
+                failure = addFailure(failure, ex);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return readOnlyChanges;
+    }
+
+    private static RuntimeException addFailure(RuntimeException failure, RuntimeException ex) {
+        if (failure == null) {
+            return ex;
+        }
+        failure.addSuppressed(ex);
+        return failure;
+    }
+}